@@ -0,0 +1,8 @@
+#!/bin/bash
+
+# Runs the tracing overhead benchmarks and keeps the results as JSON.
+# Build first with: mvn package
+# Any JMH options can follow, e.g. ./run.sh JodaTime -p backend=NONE,CCT
+cd $(dirname $0)
+mkdir -p results
+java -jar target/benchmarks.jar -rf json -rff results/jmh-$(date +%Y%m%d-%H%M%S).json "$@"
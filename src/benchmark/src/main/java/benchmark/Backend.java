@@ -0,0 +1,35 @@
+package benchmark;
+
+/**
+ * The tracing configurations compared by the benchmarks: how the library
+ * is instrumented and the TraceRuntime properties it runs with.
+ */
+public enum Backend {
+    /** the library as released */
+    NONE(Instrumentation.NONE),
+    /** the original tracer: a System.err println around every call site */
+    PRINTLN(Instrumentation.PRINTLN),
+    /** call sites traced into per-thread ring buffers and a binary trace */
+    BINARY(Instrumentation.CALLS),
+    /** the binary trace of a burst of 10 calls out of every 100 */
+    SAMPLED(Instrumentation.CALLS, "trace.sample", "100", "trace.burst", "10"),
+    /** calling context trees built in the traced threads */
+    CCT(Instrumentation.CALLS, "trace.mode", "cct"),
+    /** calling context trees with time and allocated bytes per context */
+    PROFILE(Instrumentation.CALLS, "trace.mode", "cct", "trace.time", "true", "trace.alloc", "true"),
+    /** method entries and exits instead of call sites, binary trace */
+    ENTRY(Instrumentation.ENTRY);
+
+    enum Instrumentation {
+        NONE, PRINTLN, CALLS, ENTRY
+    }
+
+    final Instrumentation instrumentation;
+    /* system property names and values, alternating */
+    final String[] properties;
+
+    Backend(Instrumentation instrumentation, String... properties) {
+        this.instrumentation = instrumentation;
+        this.properties = properties;
+    }
+}
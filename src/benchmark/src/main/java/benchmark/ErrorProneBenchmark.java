@@ -0,0 +1,45 @@
+package benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time error-prone takes to compile a fixed corpus of ten source files
+ * under every tracing backend. Only error_prone_core is instrumented, not
+ * the compiler it runs in, as in the original traces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ErrorProneBenchmark {
+    @Param({ "NONE", "PRINTLN", "BINARY", "SAMPLED", "CCT", "PROFILE", "ENTRY" })
+    public Backend backend;
+
+    private Callable<?> compile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        compile = Variant.workload(Variant.load(backend, "error_prone_core-"), "benchmark.workload.Compile");
+    }
+
+    @Benchmark
+    public Object compile() throws Exception {
+        return compile.call();
+    }
+}
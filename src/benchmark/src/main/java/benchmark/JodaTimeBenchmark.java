@@ -0,0 +1,61 @@
+package benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time of small joda-time operations under every tracing backend:
+ * parsing and printing, time zone conversion and period arithmetic. Each
+ * call makes a few hundred library calls, so the difference to NONE is the
+ * tracing cost per call site times that.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JodaTimeBenchmark {
+    @Param({ "NONE", "PRINTLN", "BINARY", "SAMPLED", "CCT", "PROFILE", "ENTRY" })
+    public Backend backend;
+
+    private Callable<?> parsePrint;
+    private Callable<?> zoneConversion;
+    private Callable<?> periodArithmetic;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ClassLoader loader = Variant.load(backend, "joda-time-");
+        parsePrint = Variant.workload(loader, "benchmark.workload.ParsePrint");
+        zoneConversion = Variant.workload(loader, "benchmark.workload.ZoneConversion");
+        periodArithmetic = Variant.workload(loader, "benchmark.workload.PeriodArithmetic");
+    }
+
+    @Benchmark
+    public Object parsePrint() throws Exception {
+        return parsePrint.call();
+    }
+
+    @Benchmark
+    public Object zoneConversion() throws Exception {
+        return zoneConversion.call();
+    }
+
+    @Benchmark
+    public Object periodArithmetic() throws Exception {
+        return periodArithmetic.call();
+    }
+}
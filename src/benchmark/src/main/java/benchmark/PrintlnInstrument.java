@@ -0,0 +1,47 @@
+package benchmark;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * The project's original instrumentation, kept as the baseline: every call
+ * site is wrapped in System.err.println("CALL owner.name") and
+ * println("RETURN owner.name"). The printed code is stack neutral and adds
+ * no branches, so the existing frames stay valid and only the maximum
+ * stack size has to be recomputed.
+ */
+final class PrintlnInstrument {
+    private PrintlnInstrument() {
+    }
+
+    static byte[] instrument(byte[] classFile) {
+        ClassReader cr = new ClassReader(classFile);
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS);
+        cr.accept(new ClassVisitor(Opcodes.ASM5, cw) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                    String[] exceptions) {
+                MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
+                return mv == null ? null : new MethodVisitor(Opcodes.ASM5, mv) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        println("CALL " + owner + "." + name);
+                        mv.visitMethodInsn(opcode, owner, name, desc, itf);
+                        println("RETURN " + owner + "." + name);
+                    }
+
+                    private void println(String line) {
+                        mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "err", "Ljava/io/PrintStream;");
+                        mv.visitLdcInsn(line);
+                        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream", "println",
+                                "(Ljava/lang/String;)V", false);
+                    }
+                };
+            }
+        }, 0);
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,177 @@
+package benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Loads a benchmarked library as instrumented for a {@link Backend}, next
+ * to the workload classes that call it.
+ *
+ * The library JARs are in -Dbench.lib (default target/lib, filled by the
+ * build); the one being measured is instrumented once per instrumentation
+ * into -Dbench.work (default target/bench) and reused by later forks. The
+ * tracing runtime is on the benchmark's own class path, so the TraceRuntime
+ * properties of the backend are set before the library first calls it;
+ * JMH runs every backend in its own fork. Trace files also go to
+ * -Dbench.work and are deleted when the trial ends.
+ */
+final class Variant {
+    private static final String WORKLOADS = "benchmark.workload.";
+
+    private Variant() {
+    }
+
+    /** A class loader for library (a JAR name prefix, e.g. "joda-time-") instrumented for backend. */
+    static ClassLoader load(Backend backend, String library) throws Exception {
+        File lib = new File(System.getProperty("bench.lib", "target/lib"));
+        File work = new File(System.getProperty("bench.work", "target/bench"));
+        File[] jars = lib.listFiles();
+        if (jars == null) {
+            throw new IOException(lib + " not found, run mvn package first");
+        }
+        List<URL> urls = new ArrayList<URL>();
+        for (File jar : jars) {
+            if (!jar.getName().endsWith(".jar")) {
+                continue;
+            }
+            if (jar.getName().startsWith(library)) {
+                jar = instrument(jar, backend.instrumentation, new File(work, backend.instrumentation.name()));
+            }
+            urls.add(jar.toURI().toURL());
+        }
+
+        for (int i = 0; i < backend.properties.length; i += 2) {
+            System.setProperty(backend.properties[i], backend.properties[i + 1]);
+        }
+        String trace = new File(work, "trace-" + backend + "-" + library + System.nanoTime()).getPath();
+        System.setProperty("trace.file", trace);
+        if (backend == Backend.PRINTLN) {
+            /* like System.err redirected to a file, as the original scripts ran it */
+            System.setErr(new PrintStream(new BufferedOutputStream(new FileOutputStream(trace), 128), true));
+        }
+        new File(trace).deleteOnExit();
+        return new ChildFirstLoader(urls.toArray(new URL[0]), Variant.class.getClassLoader());
+    }
+
+    /** A new instance of the workload class name, loaded next to the library. */
+    static Callable<?> workload(ClassLoader loader, String name) throws Exception {
+        return (Callable<?>) loader.loadClass(name).newInstance();
+    }
+
+    private static File instrument(File jar, Backend.Instrumentation how, File dir) throws Exception {
+        if (how == Backend.Instrumentation.NONE) {
+            return jar;
+        }
+        File out = new File(dir, jar.getName());
+        if (out.isFile()) {
+            return out;
+        }
+        dir.mkdirs();
+        File tmp = new File(dir, jar.getName() + ".tmp");
+        if (how == Backend.Instrumentation.PRINTLN) {
+            printlnJar(jar, tmp);
+        } else {
+            /* Instrument is in the default package with the rest of the tracing tools */
+            Method main = Class.forName("Instrument").getMethod("main", String[].class);
+            List<String> args = new ArrayList<String>();
+            if (how == Backend.Instrumentation.ENTRY) {
+                args.add("-entry");
+            }
+            args.add(jar.getPath());
+            args.add(tmp.getPath());
+            args.add(new File(dir, jar.getName() + ".sym").getPath());
+            main.invoke(null, (Object) args.toArray(new String[0]));
+        }
+        if (!tmp.renameTo(out)) {
+            throw new IOException("could not create " + out);
+        }
+        return out;
+    }
+
+    private static void printlnJar(File in, File out) throws IOException {
+        JarFile jar = new JarFile(in);
+        JarOutputStream o = new JarOutputStream(new FileOutputStream(out));
+        try {
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+                JarEntry entry = e.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                byte[] b = read(jar.getInputStream(entry));
+                if (entry.getName().endsWith(".class")) {
+                    b = PrintlnInstrument.instrument(b);
+                }
+                o.putNextEntry(new JarEntry(entry.getName()));
+                o.write(b);
+                o.closeEntry();
+            }
+        } finally {
+            o.close();
+            jar.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            b.write(buf, 0, n);
+        }
+        in.close();
+        return b.toByteArray();
+    }
+
+    /**
+     * Prefers its own JARs over the parent, and defines the workload classes
+     * itself from the parent's class files, so that they link against the
+     * library in this loader. Everything else, the JDK, JMH and the tracing
+     * runtime, comes from the parent.
+     */
+    static final class ChildFirstLoader extends URLClassLoader {
+        ChildFirstLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null && name.startsWith(WORKLOADS)) {
+                    try {
+                        byte[] b = read(getParent().getResourceAsStream(name.replace('.', '/') + ".class"));
+                        c = defineClass(name, b, 0, b.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                if (c == null) {
+                    try {
+                        c = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package benchmark.workload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.errorprone.ErrorProneCompiler;
+
+/**
+ * Compiles a fixed corpus with error-prone: positive cases of error-prone's
+ * own checks that need nothing but the JDK, read from -Dbench.corpus
+ * (default error-prone's bugpatterns/testdata in this repository).
+ */
+public final class Compile implements Callable<Object> {
+    static final String[] CORPUS = { "ArrayStringConcatenationPositiveCases.java", "ArrayToStringPositiveCases.java",
+            "BadShiftAmountPositiveCases.java", "ComparisonOutOfRangePositiveCases.java",
+            "DeadExceptionPositiveCases.java", "DivZeroPositiveCases.java", "EmptyIfStatementPositiveCases.java",
+            "EqualsNaNPositiveCases.java", "GetClassOnClassPositiveCases.java",
+            "ElementsCountedInLoopPositiveCases.java" };
+
+    private final File corpus = new File(System.getProperty("bench.corpus",
+            "../main/error_prone/error-prone/core/src/test/java/com/google/errorprone/bugpatterns/testdata"));
+
+    @Override
+    public Object call() throws IOException {
+        File out = Files.createTempDirectory("errorprone").toFile();
+        try {
+            List<String> args = new ArrayList<String>();
+            args.add("-d");
+            args.add(out.getPath());
+            args.add("-proc:none");
+            for (String f : CORPUS) {
+                args.add(new File(corpus, f).getPath());
+            }
+            /* the corpus is made of errors, so the diagnostics are the result */
+            StringWriter diagnostics = new StringWriter();
+            ErrorProneCompiler.compile(args.toArray(new String[0]), new PrintWriter(diagnostics));
+            return diagnostics.toString();
+        } finally {
+            File[] classes = out.listFiles();
+            for (int i = 0; classes != null && i < classes.length; i++) {
+                classes[i].delete();
+            }
+            out.delete();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package benchmark.workload;
+
+import java.util.concurrent.Callable;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/** Parses ISO timestamps and prints them in a pattern and back in ISO format. */
+public final class ParsePrint implements Callable<Object> {
+    private static final String[] INPUT = { "2016-02-29T23:59:59.999Z", "1970-01-01T00:00:00.000+05:30",
+            "2038-01-19T03:14:07.000-08:00", "1999-12-31T12:00:00.123+01:00" };
+
+    private final DateTimeFormatter iso = ISODateTimeFormat.dateTime().withOffsetParsed();
+    private final DateTimeFormatter pattern = DateTimeFormat.forPattern("EEE, d MMM yyyy HH:mm:ss.SSS Z");
+    private int next;
+
+    @Override
+    public Object call() {
+        DateTime t = iso.parseDateTime(INPUT[next++ & 3]);
+        return pattern.print(t) + iso.print(t);
+    }
+}
@@ -0,0 +1,22 @@
+package benchmark.workload;
+
+import java.util.concurrent.Callable;
+
+import org.joda.time.LocalDate;
+import org.joda.time.Period;
+import org.joda.time.PeriodType;
+import org.joda.time.format.PeriodFormat;
+
+/** Period between dates, normalization and adding periods back to dates. */
+public final class PeriodArithmetic implements Callable<Object> {
+    private final LocalDate start = new LocalDate(1996, 2, 29);
+    private int days;
+
+    @Override
+    public Object call() {
+        LocalDate end = start.plusDays(days++ % 20000);
+        Period p = new Period(start, end, PeriodType.yearMonthDay());
+        Period normalized = p.plusDays(45).normalizedStandard();
+        return PeriodFormat.getDefault().print(normalized) + start.plus(p).minus(normalized).getDayOfWeek();
+    }
+}
@@ -0,0 +1,27 @@
+package benchmark.workload;
+
+import java.util.concurrent.Callable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/** Moves an instant through time zones with different rules, including DST transitions. */
+public final class ZoneConversion implements Callable<Object> {
+    private final DateTimeZone[] zones = { DateTimeZone.forID("America/New_York"), DateTimeZone.forID("Europe/London"),
+            DateTimeZone.forID("Asia/Kolkata"), DateTimeZone.forID("Australia/Lord_Howe") };
+    private long instant = new DateTime(2016, 3, 13, 1, 30, DateTimeZone.UTC).getMillis();
+
+    @Override
+    public Object call() {
+        /* an hour and a bit further every time, so the transitions are crossed */
+        instant += 3700000L;
+        DateTime t = new DateTime(instant, DateTimeZone.UTC);
+        int sum = 0;
+        for (DateTimeZone zone : zones) {
+            DateTime local = t.withZone(zone);
+            sum += local.getHourOfDay() + local.withTimeAtStartOfDay().getDayOfYear()
+                    + zone.getOffset(local.toLocalDateTime().toDateTime(zone));
+        }
+        return sum;
+    }
+}
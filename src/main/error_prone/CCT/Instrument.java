@@ -1,71 +0,0 @@
-package main.error_prone.CCT;
-
-
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Method;
-
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.FieldVisitor;
-import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
-
-public class Instrument {
-    public static void main(final String args[]) throws Exception {
-        FileInputStream is = new FileInputStream(args[0]);
-        byte[] b;
-
-        ClassReader cr = new ClassReader(is);
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-        ClassVisitor cv = new TraceCallsClassAdapter(cw);
-        cr.accept(cv, 0);
-        b = cw.toByteArray();
-
-        FileOutputStream fos = new FileOutputStream(args[1]);
-        fos.write(b);
-        fos.close();
-    }
-}
-
-class TraceCallsClassAdapter extends ClassVisitor implements Opcodes {
-
-    public TraceCallsClassAdapter(final ClassVisitor cv) {
-        super(Opcodes.ASM5, cv);
-    }
-
-    @Override
-    public MethodVisitor visitMethod(final int access, final String name,
-            final String desc, final String signature, final String[] exceptions) {
-        MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
-        return mv == null ? null : new TraceCallsAdapter(mv);
-    }
-}
-
-class TraceCallsAdapter extends MethodVisitor implements Opcodes {
-
-    public TraceCallsAdapter(final MethodVisitor mv) {
-        super(Opcodes.ASM5, mv);
-    }
-
-    @Override
-    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-        /* log method entry */
-        mv.visitFieldInsn(GETSTATIC, "java/lang/System", "err", "Ljava/io/PrintStream;");
-        mv.visitLdcInsn("CALL " + owner + "." + name + desc);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
-
-        /* do call */
-        mv.visitMethodInsn(opcode, owner, name, desc, itf);
-
-        /* log method exit */
-        mv.visitFieldInsn(GETSTATIC, "java/lang/System", "err", "Ljava/io/PrintStream;");
-        mv.visitLdcInsn("RETURN " + owner + "." + name + desc);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
-    }
-}
-
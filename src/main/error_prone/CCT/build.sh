@@ -1,7 +0,0 @@
-#!/bin/bash
-
-cd $(dirname $0)
-
-javac -cp asm-5.0.3.jar Instrument.java
-
- 
@@ -1,5 +1,7 @@
 #!/bin/bash
 
+resources=$(dirname $0)/../resources
+
 mkdir -p instrumented
-java -cp .:asm-5.0.3.jar Instrument $1 instrumented/$1
+java -cp $resources:$resources/asm-5.0.4.jar Instrument $1 instrumented/$1 instrumented/methods.sym
 
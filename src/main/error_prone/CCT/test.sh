@@ -1,8 +1,9 @@
 #!/bin/bash
 
-./build.sh
+../resources/instrument-compile.sh
 
 javac Test.java
 ./instrument.sh Test.class
-java -cp instrumented Test
+java -cp instrumented:../resources Test
+java -cp ../resources TraceDump trace.bin instrumented/methods.sym
 
@@ -7,10 +7,5 @@ export CLASSPATH=$resources:$resources/asm-5.0.4.jar:.
 echo $CLASSPATH
 
 cd error-prone/core/target/classes
-mkdir -p instrumented
-
-for f in $(find com -name '*class')
-do
-  mkdir -p instrumented/$(dirname $f)
-  java -cp $CLASSPATH Instrument $f instrumented/$f
-done	
+rm -rf instrumented
+java -cp $CLASSPATH Instrument . instrumented instrumented/methods.sym
@@ -0,0 +1,207 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Instruments every class of a directory or JAR in one JVM. Classes are
+ * rewritten in parallel on a {@link ForkJoinPool}, each task with its own
+ * ClassReader/ClassWriter, and written to a mirrored directory or JAR;
+ * everything that is not a class file is copied unchanged.
+ */
+class BatchInstrument {
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private final File in;
+    private final SymbolTable symbols;
+    private final boolean entry;
+    private final CallFilter filter;
+    private final ClassHierarchy hierarchy;
+    private final AtomicInteger rewritten = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    BatchInstrument(File in, SymbolTable symbols, boolean entry, CallFilter filter) throws IOException {
+        this.in = in;
+        this.symbols = symbols;
+        this.entry = entry;
+        this.filter = filter;
+        this.hierarchy = new ClassHierarchy(new URLClassLoader(new URL[] { in.toURI().toURL() },
+                BatchInstrument.class.getClassLoader()));
+    }
+
+    static boolean accepts(File in) {
+        return in.isDirectory() || in.getName().endsWith(".jar");
+    }
+
+    void run(File out) throws IOException {
+        List<Entry> entries = in.isDirectory() ? listDirectory(out) : readJar();
+        for (Entry e : entries) {
+            if (e.name.endsWith(".class")) {
+                filter.addClass(e.name.substring(0, e.name.length() - ".class".length()));
+            }
+        }
+        if (filter.trivial() != null) {
+            classifyTrivial(entries, filter.trivial());
+        }
+        new ForkJoinPool().invoke(new Rewrite(entries, 0, entries.size()));
+        if (in.isDirectory()) {
+            for (Entry e : entries) {
+                File f = new File(out, e.name);
+                f.getParentFile().mkdirs();
+                write(f, e.bytes);
+            }
+        } else {
+            JarOutputStream jar = new JarOutputStream(new FileOutputStream(out));
+            try {
+                for (Entry e : entries) {
+                    jar.putNextEntry(new JarEntry(e.name));
+                    jar.write(e.bytes);
+                    jar.closeEntry();
+                }
+            } finally {
+                jar.close();
+            }
+        }
+        System.err.println("instrumented " + rewritten.get() + " classes of " + in
+                + (failed.get() > 0 ? ", " + failed.get() + " copied unchanged" : ""));
+    }
+
+    private void classifyTrivial(List<Entry> entries, TrivialMethods trivial) {
+        for (Entry e : entries) {
+            if (e.name.endsWith(".class")) {
+                try {
+                    trivial.add(e.bytes);
+                } catch (RuntimeException ex) {
+                    /* rewrite reports it */
+                }
+            }
+        }
+        trivial.resolve();
+        System.err.println(trivial.size() + " trivial methods in " + in.getName());
+    }
+
+    private List<Entry> listDirectory(File out) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        walk(in, "", out.getCanonicalFile(), entries);
+        return entries;
+    }
+
+    private void walk(File dir, String prefix, File skip, List<Entry> entries) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (!f.getCanonicalFile().equals(skip)) {
+                    walk(f, prefix + f.getName() + "/", skip, entries);
+                }
+            } else {
+                entries.add(new Entry(prefix + f.getName(), read(new FileInputStream(f))));
+            }
+        }
+    }
+
+    private List<Entry> readJar() throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        JarFile jar = new JarFile(in);
+        try {
+            for (JarEntry e : Collections.list(jar.entries())) {
+                if (!e.isDirectory()) {
+                    entries.add(new Entry(e.getName(), read(jar.getInputStream(e))));
+                }
+            }
+        } finally {
+            jar.close();
+        }
+        return entries;
+    }
+
+    private void rewrite(Entry e) {
+        if (!e.name.endsWith(".class")) {
+            return;
+        }
+        try {
+            e.bytes = Instrument.instrument(new ClassReader(e.bytes), hierarchy.newWriter(), symbols, entry,
+                    filter);
+            rewritten.incrementAndGet();
+        } catch (RuntimeException ex) {
+            failed.incrementAndGet();
+            System.err.println("instrument: leaving " + e.name + " unchanged: " + ex);
+        }
+    }
+
+    static byte[] read(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    static void write(File f, byte[] b) throws IOException {
+        OutputStream os = new FileOutputStream(f);
+        try {
+            os.write(b);
+        } finally {
+            os.close();
+        }
+    }
+
+    static final class Entry {
+        final String name;
+        byte[] bytes;
+
+        Entry(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class Rewrite extends RecursiveAction {
+        private final List<Entry> entries;
+        private final int from;
+        private final int to;
+
+        Rewrite(List<Entry> entries, int from, int to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    rewrite(entries.get(i));
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Rewrite(entries, from, mid), new Rewrite(entries, mid, to));
+            }
+        }
+    }
+}
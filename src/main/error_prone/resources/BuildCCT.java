@@ -0,0 +1,127 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds a {@link ContextTree} from a trace in one streaming pass. Every
+ * thread in the trace gets its own {@link ContextCursor}: CALL moves it to
+ * (or creates) the child for the method and bumps its count, RETURN moves
+ * it back to the parent. Nothing but the trees and the cursors is kept,
+ * whatever the length of the trace, and the per-thread trees are merged at
+ * the end (-threads also writes each of them as out.cct.<thread>).
+ *
+ * The trace is either a binary trace from {@link TraceRuntime} or CALL/RETURN
+ * text lines ("-" reads them from stdin) with an optional "@thread" field;
+ * text method names are interned into the symbol table. The tree of a
+ * sampled trace records the skipped calls, see {@link ContextTree}.
+ *
+ * With -tests dir, the calls between the TEST marks of {@link TestListener}
+ * also go to one tree per test, written concurrently by {@link TestTrees}
+ * to dir together with dir/tests.csv.
+ *
+ * Usage: java BuildCCT [-threads] [-tests dir] <trace> methods.sym out.cct [report.txt]
+ */
+public class BuildCCT implements TraceReader.Visitor {
+    private final Map<Long, ContextCursor> threads = new LinkedHashMap<Long, ContextCursor>();
+    private final TestTrees tests;
+    private long lastThread = -1;
+    private ContextCursor last;
+
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        boolean perThread = false;
+        File testDir = null;
+        for (; args[a].startsWith("-") && args[a].length() > 1; a++) {
+            if (args[a].equals("-threads")) {
+                perThread = true;
+            } else if (args[a].equals("-tests")) {
+                testDir = new File(args[++a]);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        String trace = args[a++];
+        File sym = new File(args[a++]);
+        File out = new File(args[a++]);
+
+        BuildCCT b = new BuildCCT(testDir == null ? null : new TestTrees(testDir));
+        TraceReader.read(trace, sym, b);
+        if (b.tests != null) {
+            b.tests.close();
+        }
+        if (perThread) {
+            for (Map.Entry<Long, ContextCursor> e : b.threads.entrySet()) {
+                e.getValue().tree.write(new File(out.getPath() + "." + e.getKey()));
+            }
+        }
+        ContextTree tree = b.tree();
+        tree.write(out);
+        if (a < args.length) {
+            FileWriter w = new FileWriter(args[a]);
+            MappedContextTree.open(out).writeText(w, SymbolTable.load(sym));
+            w.close();
+        }
+        System.out.println("CCT generated: " + tree.size() + " contexts from " + b.threads.size() + " threads");
+    }
+
+    public BuildCCT() {
+        this(null);
+    }
+
+    BuildCCT(TestTrees tests) {
+        this.tests = tests;
+    }
+
+    /** The per-thread trees merged into one. */
+    public ContextTree tree() {
+        ContextTree merged = new ContextTree();
+        for (ContextCursor c : threads.values()) {
+            merged.merge(c.tree);
+        }
+        return merged;
+    }
+
+    private ContextCursor cursor(long thread) {
+        if (thread != lastThread || last == null) {
+            last = threads.get(thread);
+            if (last == null) {
+                last = new ContextCursor(thread);
+                threads.put(thread, last);
+            }
+            lastThread = thread;
+        }
+        return last;
+    }
+
+    @Override
+    public void call(long thread, int method) {
+        cursor(thread).call(method);
+    }
+
+    @Override
+    public void ret(long thread, int method) {
+        cursor(thread).ret(method);
+    }
+
+    @Override
+    public void burst(long thread, int skipped, int[] context) {
+        cursor(thread).burst(skipped, context, context.length);
+    }
+
+    @Override
+    public void test(long thread, String test, int status) {
+        if (tests == null) {
+            return;
+        }
+        if (status == TraceRuntime.TEST_STARTED) {
+            cursor(thread).startTest();
+            return;
+        }
+        ContextTree tree = cursor(thread).finishTest();
+        if (tree != null) {
+            tests.submit(test, TraceRuntime.TEST_STATUS[status], tree);
+        }
+    }
+}
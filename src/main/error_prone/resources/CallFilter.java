@@ -0,0 +1,127 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which methods get trace events at instrumentation time, so that
+ * filtered calls cost nothing at run time.
+ *
+ * A rule is {@code owner[.name[descriptor]]}, each part a {@link Glob}:
+ * {@code java/**} selects everything in java, {@code **.<init>} every
+ * constructor, {@code java/lang/StringBuilder.append(I)**} one overload.
+ * A missing name or descriptor matches any. Rules are given as a comma
+ * separated list, or as {@code @file} with one rule per line and '#'
+ * comments. A method is traced if it matches an include rule (or there are
+ * none) and no exclude rule; with internal only calls to classes of the
+ * instrumented code are traced. With trivial methods set, calls that always
+ * run a trivial leaf method (see {@link TrivialMethods}) are not traced
+ * either, and are counted as implied calls of their caller.
+ */
+class CallFilter {
+    static final CallFilter ALL = new CallFilter(null, null, false);
+
+    private final List<Pattern[]> includes;
+    private final List<Pattern[]> excludes;
+    private final boolean internal;
+    private final Set<String> classes = new HashSet<String>();
+    private TrivialMethods trivial;
+
+    CallFilter(String includes, String excludes, boolean internal) {
+        this.includes = parse(includes);
+        this.excludes = parse(excludes);
+        this.internal = internal;
+    }
+
+    /** Adds a class of the instrumented code, for the internal mode. */
+    void addClass(String owner) {
+        classes.add(owner);
+    }
+
+    void skipTrivial(TrivialMethods trivial) {
+        this.trivial = trivial;
+    }
+
+    TrivialMethods trivial() {
+        return trivial;
+    }
+
+    boolean isInternal(String owner) {
+        return classes.contains(owner);
+    }
+
+    boolean accepts(String owner, String name, String desc) {
+        if (internal && !isInternal(owner)) {
+            return false;
+        }
+        return (includes.isEmpty() || matches(includes, owner, name, desc)) && !matches(excludes, owner, name, desc);
+    }
+
+    /** Whether a call instruction always runs a trivial method, and is left untraced. */
+    boolean isTrivialCall(int opcode, String owner, String name, String desc) {
+        return trivial != null && trivial.isTrivial(opcode, owner, name, desc);
+    }
+
+    /** Counts an untraced trivial call site of caller as an implied call. */
+    void recordImplied(String caller, String owner, String name, String desc) {
+        trivial.imply(caller, owner + "." + name + desc);
+    }
+
+    /** Whether a method of the instrumented code is trivial and left uninstrumented. */
+    boolean isTrivial(String owner, String name, String desc) {
+        return trivial != null && trivial.isTrivial(owner + "." + name + desc);
+    }
+
+    private static boolean matches(List<Pattern[]> rules, String owner, String name, String desc) {
+        for (Pattern[] r : rules) {
+            if (r[0].matcher(owner).matches() && r[1].matcher(name).matches() && r[2].matcher(desc).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern[]> parse(String rules) {
+        List<Pattern[]> parsed = new ArrayList<Pattern[]>();
+        if (rules == null) {
+            return parsed;
+        }
+        List<String> lines = rules.startsWith("@") ? read(rules.substring(1)) : Arrays.asList(rules.split(","));
+        for (String rule : lines) {
+            rule = rule.trim();
+            if (rule.isEmpty() || rule.startsWith("#")) {
+                continue;
+            }
+            int dot = rule.indexOf('.');
+            int paren = rule.indexOf('(', Math.max(dot, 0));
+            String owner = dot < 0 ? rule : rule.substring(0, dot);
+            String name = dot < 0 ? "*" : rule.substring(dot + 1, paren < 0 ? rule.length() : paren);
+            String desc = paren < 0 ? "**" : rule.substring(paren);
+            parsed.add(new Pattern[] { Glob.compile(owner), Glob.compile(name), Glob.compile(desc) });
+        }
+        return parsed;
+    }
+
+    private static List<String> read(String file) {
+        List<String> lines = new ArrayList<String>();
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read filter rules " + file, e);
+        }
+        return lines;
+    }
+}
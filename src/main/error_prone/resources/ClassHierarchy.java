@@ -0,0 +1,87 @@
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Superclass lookups for COMPUTE_FRAMES that read class headers through a
+ * class loader's resources instead of loading (and initialising) the classes
+ * being rewritten.
+ */
+class ClassHierarchy {
+    private static final String OBJECT = "java/lang/Object";
+
+    private final ClassLoader loader;
+    private final ConcurrentHashMap<String, String[]> supers = new ConcurrentHashMap<String, String[]>();
+
+    ClassHierarchy(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    ClassWriter newWriter() {
+        return new Writer(this);
+    }
+
+    /* { superName, "i" if interface }; unknown types are treated as direct subclasses of Object */
+    private String[] lookup(String type) {
+        String[] s = supers.get(type);
+        if (s == null) {
+            s = new String[] { OBJECT, null };
+            InputStream is = loader.getResourceAsStream(type + ".class");
+            try {
+                ClassReader cr = new ClassReader(BatchInstrument.read(is));
+                s[0] = cr.getSuperName();
+                s[1] = (cr.getAccess() & Opcodes.ACC_INTERFACE) != 0 ? "i" : null;
+            } catch (Exception e) {
+                /* missing, or a class file newer than ASM understands (the JDK's own) */
+                try {
+                    Class<?> c = Class.forName(type.replace('/', '.'), false, loader);
+                    s[0] = c.getSuperclass() == null ? null : Type.getInternalName(c.getSuperclass());
+                    s[1] = c.isInterface() ? "i" : null;
+                } catch (Throwable t) {
+                    /* keep the Object fallback */
+                }
+            }
+            if (OBJECT.equals(type)) {
+                s[0] = null;
+            }
+            supers.put(type, s);
+        }
+        return s;
+    }
+
+    String commonSuperClass(String a, String b) {
+        if (lookup(a)[1] != null || lookup(b)[1] != null) {
+            return OBJECT;
+        }
+        Set<String> chain = new HashSet<String>();
+        for (String t = a; t != null; t = lookup(t)[0]) {
+            chain.add(t);
+        }
+        for (String t = b; t != null; t = lookup(t)[0]) {
+            if (chain.contains(t)) {
+                return t;
+            }
+        }
+        return OBJECT;
+    }
+
+    static final class Writer extends ClassWriter {
+        private final ClassHierarchy hierarchy;
+
+        Writer(ClassHierarchy hierarchy) {
+            super(ClassWriter.COMPUTE_FRAMES);
+            this.hierarchy = hierarchy;
+        }
+
+        @Override
+        protected String getCommonSuperClass(String a, String b) {
+            return hierarchy.commonSuperClass(a, b);
+        }
+    }
+}
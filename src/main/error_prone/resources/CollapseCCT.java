@@ -0,0 +1,91 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes a calling context tree in the collapsed-stack format of flame
+ * graph tools, one {@code A.m;B.n;C.o weight} line per context. The weight
+ * is the context's own number of calls, so a frame is as wide as the calls
+ * made in its subtree; with -time or -bytes it is the exclusive time (ns)
+ * or allocated bytes, so frames are as wide as the inclusive values.
+ * Weights of a sampled tree are estimates, and zero weights are left out.
+ *
+ * The memory-mapped tree is walked in preorder with a stack of the open
+ * subtrees, as {@link MappedContextTree#writeText} does, and the frames of
+ * the current path are kept in one char buffer that is cut back to the
+ * parent's length, so neither deep chains nor large trees build anything
+ * but the line being written.
+ *
+ * Usage: java CollapseCCT [-time|-bytes] tree.cct methods.sym [out.txt]
+ */
+public class CollapseCCT {
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        String weight = "-count";
+        if (args[a].equals("-time") || args[a].equals("-bytes")) {
+            weight = args[a++];
+        }
+        MappedContextTree tree = MappedContextTree.open(new File(args[a]));
+        SymbolTable symbols = SymbolTable.load(new File(args[a + 1]));
+        if (weight.equals("-time") && !tree.hasTime() || weight.equals("-bytes") && !tree.hasBytes()) {
+            System.err.println(args[a] + " has no " + weight.substring(1) + " column");
+            System.exit(1);
+        }
+        Writer out = args.length > a + 2 ? new FileWriter(args[a + 2]) : new OutputStreamWriter(System.out);
+        write(tree, symbols, weight, out);
+    }
+
+    static void write(MappedContextTree tree, SymbolTable symbols, String weight, Writer w) throws IOException {
+        BufferedWriter out = new BufferedWriter(w, 1 << 16);
+        double rate = tree.samplingRate();
+        String[] names = new String[symbols.size()];
+        char[] path = new char[256];
+        /* the end of every open subtree and the path length before its frame, innermost last */
+        int[] open = new int[16];
+        int[] mark = new int[16];
+        int depth = 0;
+        int length = 0;
+        for (int n = 1; n < tree.size(); n++) {
+            while (depth > 0 && open[depth - 1] <= n) {
+                length = mark[--depth];
+            }
+            int m = tree.method(n);
+            if (m >= names.length) {
+                names = Arrays.copyOf(names, m + 1);
+            }
+            if (names[m] == null) {
+                names[m] = symbols.shortName(m);
+            }
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+                mark = Arrays.copyOf(mark, depth * 2);
+            }
+            open[depth] = tree.end(n);
+            mark[depth++] = length;
+            int need = length + 1 + names[m].length();
+            if (need > path.length) {
+                path = Arrays.copyOf(path, Math.max(need, path.length * 2));
+            }
+            if (length > 0) {
+                path[length++] = ';';
+            }
+            names[m].getChars(0, names[m].length(), path, length);
+            length += names[m].length();
+
+            long v = weight.equals("-time") ? tree.exclusiveTime(n)
+                    : weight.equals("-bytes") ? tree.exclusiveBytes(n) : tree.count(n);
+            v = ContextTree.estimate(v, rate);
+            if (v > 0) {
+                out.write(path, 0, length);
+                out.write(' ');
+                out.write(Long.toString(v));
+                out.newLine();
+            }
+        }
+        out.flush();
+    }
+}
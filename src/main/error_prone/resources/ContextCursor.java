@@ -0,0 +1,235 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * One thread's calling context tree and its current position in it. Only
+ * the owning thread moves the cursor, so no locking is needed; trees of
+ * different threads are combined afterwards with {@link ContextTree#merge}.
+ *
+ * With a {@link Sampler} only the calls of a burst are counted, and the
+ * cursor is moved to the burst's context when the burst starts.
+ *
+ * A profiling cursor also keeps the start time and allocated bytes of
+ * every open call and adds the difference to the call's context when it
+ * returns. Calls that started before a burst, e.g. those of a context read
+ * from a trace, are not timed.
+ *
+ * A cursor that records a running program is closed by another thread, at
+ * exit, before its tree is read: the owner brackets every event with
+ * {@link #acquire} and {@link #release}, and {@link #close} waits for the
+ * owner to leave the tree and keeps it out from then on.
+ */
+final class ContextCursor {
+    private static final AtomicIntegerFieldUpdater<ContextCursor> BUSY =
+            AtomicIntegerFieldUpdater.newUpdater(ContextCursor.class, "busy");
+
+    final long thread;
+    ContextTree tree = new ContextTree();
+    final Sampler sampler;
+    int node = ContextTree.ROOT;
+
+    /* the thread's own tree and position while a test has a tree of its own */
+    private ContextTree outer;
+    private int outerNode;
+    private int outerDepth;
+
+    private final boolean time;
+    private final boolean alloc;
+    private long[] startTime = new long[0];
+    private long[] startBytes = new long[0];
+    private int depth;
+
+    /* 1 while the owner is inside the tree; closed keeps it out afterwards */
+    private volatile int busy;
+    private volatile boolean closed;
+
+    ContextCursor(long thread) {
+        this(thread, null, false, false);
+    }
+
+    ContextCursor(long thread, Sampler sampler, boolean time, boolean alloc) {
+        this.thread = thread;
+        this.sampler = sampler;
+        this.time = time;
+        this.alloc = alloc && Allocations.SUPPORTED;
+        if (time) {
+            tree.enableTime();
+        }
+        if (this.alloc) {
+            tree.enableBytes();
+        }
+    }
+
+    /** Whether the owner may go on to change the tree; if so, {@link #release} it afterwards. */
+    boolean acquire() {
+        busy = 1;
+        if (closed) {
+            BUSY.lazySet(this, 0);
+            return false;
+        }
+        return true;
+    }
+
+    void release() {
+        BUSY.lazySet(this, 0);
+    }
+
+    /**
+     * Stops the owner from changing the tree and returns it, with a test
+     * still running merged in and the skipped calls counted, or null if the
+     * owner did not leave the tree within timeoutNanos.
+     */
+    ContextTree close(long timeoutNanos) {
+        closed = true;
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (busy != 0) {
+            if (System.nanoTime() - deadline > 0) {
+                return null;
+            }
+            Thread.yield();
+        }
+        finishTest();
+        flush();
+        return tree;
+    }
+
+    void call(int method) {
+        if (sampler != null) {
+            int s = sampler.call(method);
+            if (s == Sampler.SKIP) {
+                return;
+            }
+            if (s == Sampler.START) {
+                burst(sampler.takeSkipped(), sampler.stack(), sampler.depth() - 1);
+            }
+        }
+        node = tree.child(node, method);
+        tree.add(node, 1);
+        if (time || alloc) {
+            enter(time ? System.nanoTime() : 0, alloc ? Allocations.current(thread) : 0);
+        }
+    }
+
+    /** Starts a burst after {@code skipped} untraced calls, in the given calling context. */
+    void burst(int skipped, int[] stack, int depth) {
+        tree.skip(skipped);
+        node = ContextTree.ROOT;
+        this.depth = 0;
+        for (int i = 0; i < depth; i++) {
+            node = tree.child(node, stack[i]);
+            if (time || alloc) {
+                /* these calls started before the burst and cannot be timed */
+                enter(-1, -1);
+            }
+        }
+    }
+
+    void startTest() {
+        if (outer != null) {
+            finishTest();
+        }
+        outer = tree;
+        outerNode = node;
+        outerDepth = depth;
+        tree = new ContextTree();
+        if (outer.hasTime()) {
+            tree.enableTime();
+        }
+        if (outer.hasBytes()) {
+            tree.enableBytes();
+        }
+        node = ContextTree.ROOT;
+    }
+
+    /**
+     * Returns the test's tree, which is also merged into the thread's tree
+     * under the context the test started in, or null if no test is running.
+     */
+    ContextTree finishTest() {
+        if (outer == null) {
+            return null;
+        }
+        ContextTree test = tree;
+        flush();
+        outer.merge(test, outerNode);
+        tree = outer;
+        node = outerNode;
+        depth = outerDepth;
+        outer = null;
+        return test;
+    }
+
+    /** Counts the calls skipped since the last burst, e.g. when the thread's tree is written. */
+    void flush() {
+        if (sampler != null) {
+            tree.skip(sampler.takeSkipped());
+        }
+    }
+
+    void ret(int method) {
+        if (sampler != null && !sampler.ret(method)) {
+            return;
+        }
+        /*
+         * an unmatched RETURN means events were lost (a callee threw); traces
+         * of Instrument -entry are balanced and always match the current node
+         */
+        int to = tree.pop(node, method);
+        if (time || alloc) {
+            exit(to, time ? System.nanoTime() : 0, alloc ? Allocations.current(thread) : 0);
+        }
+        node = to;
+    }
+
+    private void enter(long now, long bytes) {
+        if (depth == startTime.length) {
+            startTime = Arrays.copyOf(startTime, Math.max(64, depth * 2));
+            startBytes = Arrays.copyOf(startBytes, startTime.length);
+        }
+        startTime[depth] = now;
+        startBytes[depth] = bytes;
+        depth++;
+    }
+
+    /* closes every call from the current node up to, not including, node to */
+    private void exit(int to, long now, long bytes) {
+        for (int n = node; n != to && depth > 0; n = tree.parent(n)) {
+            depth--;
+            if (time && startTime[depth] >= 0) {
+                tree.addTime(n, now - startTime[depth]);
+            }
+            if (alloc && startBytes[depth] >= 0) {
+                tree.addBytes(n, bytes - startBytes[depth]);
+            }
+        }
+    }
+
+    /** Per-thread allocation counter of HotSpot's ThreadMXBean, where available. */
+    static final class Allocations {
+        private static final com.sun.management.ThreadMXBean THREADS = threads();
+        static final boolean SUPPORTED = THREADS != null;
+
+        private static com.sun.management.ThreadMXBean threads() {
+            try {
+                java.lang.management.ThreadMXBean t = ManagementFactory.getThreadMXBean();
+                if (t instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean hs = (com.sun.management.ThreadMXBean) t;
+                    if (hs.isThreadAllocatedMemorySupported()) {
+                        hs.setThreadAllocatedMemoryEnabled(true);
+                        return hs;
+                    }
+                }
+            } catch (LinkageError e) {
+                // not a HotSpot JVM
+            } catch (UnsupportedOperationException e) {
+                // allocation counting cannot be enabled
+            }
+            return null;
+        }
+
+        static long current(long thread) {
+            return THREADS.getThreadAllocatedBytes(thread);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Query index over a {@link MappedContextTree}: an inverted index from
+ * method id to the nodes of that method, and the depth of every node.
+ * Nodes are numbered in preorder and each knows the end of its subtree, so
+ * the tree already is an Euler tour: a is an ancestor of b exactly when
+ * a < b < end(a), and a subtree is one contiguous node range.
+ *
+ * Path patterns are steps separated by '>' (the next step is called
+ * directly) or '>>' (called somewhere below); a leading '^' anchors the
+ * first step at the top of the tree. A step is a {@link Glob} over
+ * owner.name, or owner.name+desc if it contains '('; a step without '/'
+ * is matched against the simple class name, so {@code ImmutableMap.copyOf}
+ * finds com/google/common/collect/ImmutableMap.copyOf.
+ *
+ * Patterns are matched from the left, one step at a time, over the
+ * preorder lists of the nodes of each step's methods: a '>' step keeps the
+ * nodes whose parent matched the steps before, a '>>' step the nodes inside
+ * the subtree of one that did, found in a single merge of both lists.
+ */
+public class ContextIndex {
+    private final MappedContextTree tree;
+    private final SymbolTable symbols;
+    private final int[] first;
+    private final int[] nodes;
+    private final int[] depth;
+
+    public ContextIndex(MappedContextTree tree, SymbolTable symbols) {
+        this.tree = tree;
+        this.symbols = symbols;
+        int n = tree.size();
+        int methods = symbols.size();
+        for (int i = 1; i < n; i++) {
+            methods = Math.max(methods, tree.method(i) + 1);
+        }
+
+        /* counting sort of the nodes by method keeps each list in preorder */
+        first = new int[methods + 1];
+        for (int i = 1; i < n; i++) {
+            first[tree.method(i) + 1]++;
+        }
+        for (int m = 0; m < methods; m++) {
+            first[m + 1] += first[m];
+        }
+        nodes = new int[Math.max(n - 1, 0)];
+        int[] next = Arrays.copyOf(first, methods);
+        for (int i = 1; i < n; i++) {
+            nodes[next[tree.method(i)]++] = i;
+        }
+
+        depth = new int[n];
+        for (int i = 1; i < n; i++) {
+            depth[i] = depth[tree.parent(i)] + 1;
+        }
+    }
+
+    public MappedContextTree tree() {
+        return tree;
+    }
+
+    /** Depth of a context, 1 for the calls at the top of the tree. */
+    public int depth(int node) {
+        return depth[node];
+    }
+
+    public boolean isAncestor(int a, int b) {
+        return a < b && b < tree.end(a);
+    }
+
+    /** The nodes of method {@code m}, in preorder. */
+    public int[] nodesOf(int m) {
+        return m + 1 < first.length ? Arrays.copyOfRange(nodes, first[m], first[m + 1]) : new int[0];
+    }
+
+    /**
+     * The contexts matching a path pattern whose depth is at most
+     * {@code maxDepth}, in preorder.
+     *
+     * @throws IllegalArgumentException if the pattern has no steps, starts
+     *         or ends with a separator, or has more than two '>' in a row
+     */
+    public List<Integer> find(String pattern, int maxDepth) {
+        String p = pattern.trim();
+        boolean anchored = p.startsWith("^");
+        if (anchored) {
+            p = p.substring(1).trim();
+        }
+        List<BitSet> steps = new ArrayList<BitSet>();
+        List<Boolean> direct = new ArrayList<Boolean>();
+        /*
+         * "a >> b" splits into "a ", "", " b": an empty part makes the next
+         * step indirect; the '>' of <init> and <clinit> is not a separator
+         */
+        boolean child = true;
+        String[] parts = p.split("(?<!<init|<clinit)>", -1);
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.trim().isEmpty()) {
+                if (i == 0 || i == parts.length - 1 || !child) {
+                    throw new IllegalArgumentException("bad pattern \"" + pattern
+                            + "\", expected [^]step (> step | >> step)...");
+                }
+                child = false;
+                continue;
+            }
+            direct.add(child);
+            steps.add(methods(part.trim()));
+            child = true;
+        }
+
+        /* the nodes matching steps 0..i, left to right, each list in preorder */
+        int[] matched = candidates(steps.get(0));
+        if (anchored) {
+            matched = atDepth(matched, 1);
+        }
+        for (int i = 1; i < steps.size() && matched.length > 0; i++) {
+            int[] next = candidates(steps.get(i));
+            matched = direct.get(i) ? children(matched, next) : descendants(matched, next);
+        }
+        List<Integer> found = new ArrayList<Integer>();
+        for (int node : matched) {
+            if (depth[node] <= maxDepth) {
+                found.add(node);
+            }
+        }
+        return found;
+    }
+
+    /* nodes of all methods in the set, merged back into preorder */
+    private int[] candidates(BitSet methods) {
+        int total = 0;
+        for (int m = methods.nextSetBit(0); m >= 0 && m + 1 < first.length; m = methods.nextSetBit(m + 1)) {
+            total += first[m + 1] - first[m];
+        }
+        int[] c = new int[total];
+        int k = 0;
+        for (int m = methods.nextSetBit(0); m >= 0 && m + 1 < first.length; m = methods.nextSetBit(m + 1)) {
+            System.arraycopy(nodes, first[m], c, k, first[m + 1] - first[m]);
+            k += first[m + 1] - first[m];
+        }
+        Arrays.sort(c);
+        return c;
+    }
+
+    private int[] atDepth(int[] nodes, int d) {
+        int[] kept = new int[nodes.length];
+        int k = 0;
+        for (int n : nodes) {
+            if (depth[n] == d) {
+                kept[k++] = n;
+            }
+        }
+        return Arrays.copyOf(kept, k);
+    }
+
+    /* the candidates whose parent is one of the parents */
+    private int[] children(int[] parents, int[] candidates) {
+        BitSet isParent = new BitSet(tree.size());
+        for (int p : parents) {
+            isParent.set(p);
+        }
+        int[] kept = new int[candidates.length];
+        int k = 0;
+        for (int c : candidates) {
+            if (isParent.get(tree.parent(c))) {
+                kept[k++] = c;
+            }
+        }
+        return Arrays.copyOf(kept, k);
+    }
+
+    /*
+     * the candidates below one of the ancestors, in one sweep over both
+     * lists: c is below some a < c exactly when c is before the furthest
+     * subtree end of the ancestors before it
+     */
+    private int[] descendants(int[] ancestors, int[] candidates) {
+        int[] kept = new int[candidates.length];
+        int k = 0;
+        int j = 0;
+        int covered = 0;
+        for (int c : candidates) {
+            for (; j < ancestors.length && ancestors[j] < c; j++) {
+                covered = Math.max(covered, tree.end(ancestors[j]));
+            }
+            if (c < covered) {
+                kept[k++] = c;
+            }
+        }
+        return Arrays.copyOf(kept, k);
+    }
+
+    /** The ids of the methods a step matches. */
+    BitSet methods(String step) {
+        Pattern glob = Glob.compile(step);
+        boolean desc = step.indexOf('(') >= 0;
+        boolean simple = step.indexOf('/') < 0;
+        BitSet match = new BitSet();
+        for (int m = 0; m < symbols.size(); m++) {
+            String name = desc ? symbols.name(m) : symbols.shortName(m);
+            if (simple) {
+                int paren = name.indexOf('(');
+                name = name.substring(name.lastIndexOf('/', paren < 0 ? name.length() : paren) + 1);
+            }
+            if (glob.matcher(name).matches()) {
+                match.set(m);
+            }
+        }
+        return match;
+    }
+}
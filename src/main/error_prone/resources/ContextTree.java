@@ -0,0 +1,350 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Calling context tree stored as parallel primitive arrays. Node 0 is the
+ * root; every other node is a (parent, method id) pair with a call count,
+ * and children are found through a hash of that pair, so memory grows with
+ * the number of distinct calling contexts rather than with trace length.
+ *
+ * A tree built from a sampled trace (see {@link Sampler}) also knows how
+ * many calls were skipped; its counts are then scaled up to estimates of
+ * the true counts, with a 95% confidence bound that treats the traced calls
+ * as an independent sample of all calls.
+ *
+ * Trees built by the runtime can also carry the inclusive time (ns) and
+ * allocated bytes of every context; the exclusive values are the inclusive
+ * ones minus those of the children.
+ */
+public class ContextTree {
+    public static final int ROOT = 0;
+
+    private int size;
+    private int[] parent;
+    private int[] method;
+    private long[] count;
+    private long skipped;
+    private long[] time;
+    private long[] bytes;
+    private final LongIntHashMap children;
+
+    public ContextTree() {
+        this(1024);
+    }
+
+    private ContextTree(int capacity) {
+        parent = new int[capacity];
+        method = new int[capacity];
+        count = new long[capacity];
+        children = new LongIntHashMap(capacity, -1);
+        parent[ROOT] = -1;
+        method[ROOT] = -1;
+        size = 1;
+    }
+
+    /** Returns the child of {@code node} for {@code m}, creating it if needed. */
+    public int child(int node, int m) {
+        long key = (long) node << 32 | (m & 0xffffffffL);
+        int c = children.get(key);
+        if (c < 0) {
+            if (size == parent.length) {
+                int cap = size * 2;
+                parent = Arrays.copyOf(parent, cap);
+                method = Arrays.copyOf(method, cap);
+                count = Arrays.copyOf(count, cap);
+                if (time != null) {
+                    time = Arrays.copyOf(time, cap);
+                }
+                if (bytes != null) {
+                    bytes = Arrays.copyOf(bytes, cap);
+                }
+            }
+            c = size++;
+            parent[c] = node;
+            method[c] = m;
+            children.put(key, c);
+        }
+        return c;
+    }
+
+    public void add(int node, long n) {
+        count[node] += n;
+    }
+
+    /** Starts keeping the inclusive time of every context. */
+    public void enableTime() {
+        if (time == null) {
+            time = new long[parent.length];
+        }
+    }
+
+    /** Starts keeping the inclusive allocated bytes of every context. */
+    public void enableBytes() {
+        if (bytes == null) {
+            bytes = new long[parent.length];
+        }
+    }
+
+    public boolean hasTime() {
+        return time != null;
+    }
+
+    public boolean hasBytes() {
+        return bytes != null;
+    }
+
+    public void addTime(int node, long ns) {
+        time[node] += ns;
+    }
+
+    public void addBytes(int node, long n) {
+        bytes[node] += n;
+    }
+
+    public long time(int node) {
+        return time[node];
+    }
+
+    public long bytes(int node) {
+        return bytes[node];
+    }
+
+
+    /** Records calls that were not traced because of sampling. */
+    public void skip(long n) {
+        skipped += n;
+    }
+
+    public long skipped() {
+        return skipped;
+    }
+
+    /** The number of calls counted in the tree. */
+    public long calls() {
+        long n = 0;
+        for (int i = 1; i < size; i++) {
+            n += count[i];
+        }
+        return n;
+    }
+
+    /** The fraction of all calls that were traced, 1 for an unsampled tree. */
+    public double samplingRate() {
+        long traced = calls();
+        return traced == 0 ? 1 : (double) traced / (traced + skipped);
+    }
+
+    /** The estimated number of calls for {@code counted} traced calls. */
+    public static long estimate(long counted, double rate) {
+        return Math.round(counted / rate);
+    }
+
+    /** Half-width of the 95% confidence interval of {@link #estimate}. */
+    public static long bound(long counted, double rate) {
+        return Math.round(1.96 * Math.sqrt(counted * (1 - rate)) / rate);
+    }
+
+    /**
+     * The context a RETURN from {@code m} leads back to: the parent of the
+     * nearest ancestor-or-self for {@code m}. A RETURN that matches nothing
+     * (its CALL was never seen) leaves the cursor where it is.
+     */
+    public int pop(int node, int m) {
+        for (int n = node; n != ROOT; n = parent[n]) {
+            if (method[n] == m) {
+                return parent[n];
+            }
+        }
+        return node;
+    }
+
+    /** Adds every context and count of {@code other} to this tree. */
+    public void merge(ContextTree other) {
+        merge(other, ROOT);
+    }
+
+    /** Adds {@code other} as if its root were the context {@code at}. */
+    public void merge(ContextTree other, int at) {
+        int[] map = new int[other.size];
+        map[ROOT] = at;
+        count[at] += other.count[ROOT];
+        skipped += other.skipped;
+        if (other.time != null) {
+            enableTime();
+        }
+        if (other.bytes != null) {
+            enableBytes();
+        }
+        for (int i = 1; i < other.size; i++) {
+            map[i] = child(map[other.parent[i]], other.method[i]);
+            count[map[i]] += other.count[i];
+            if (other.time != null) {
+                time[map[i]] += other.time[i];
+            }
+            if (other.bytes != null) {
+                bytes[map[i]] += other.bytes[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int parent(int node) {
+        return parent[node];
+    }
+
+    public int method(int node) {
+        return method[node];
+    }
+
+    public long count(int node) {
+        return count[node];
+    }
+
+    /**
+     * Node ids in depth-first preorder, children in creation order. Parents
+     * are always created before their children, so one backwards pass
+     * builds the sibling lists.
+     */
+    public int[] preorder() {
+        int[] firstChild = new int[size];
+        int[] nextSibling = new int[size];
+        Arrays.fill(firstChild, -1);
+        for (int n = size - 1; n > ROOT; n--) {
+            nextSibling[n] = firstChild[parent[n]];
+            firstChild[parent[n]] = n;
+        }
+        return preorder(firstChild, nextSibling);
+    }
+
+    /**
+     * Node ids in depth-first preorder with children ordered by method id,
+     * i.e. paths in lexicographic order. Unlike {@link #preorder()} this does
+     * not depend on the order in which the tree was built.
+     */
+    public int[] sortedPreorder() {
+        long[] keys = new long[size - 1];
+        for (int n = 1; n < size; n++) {
+            keys[n - 1] = (long) parent[n] << 32 | (method[n] & 0xffffffffL);
+        }
+        Arrays.sort(keys);
+        int[] firstChild = new int[size];
+        int[] nextSibling = new int[size];
+        Arrays.fill(firstChild, -1);
+        for (int i = keys.length - 1; i >= 0; i--) {
+            int n = children.get(keys[i]);
+            nextSibling[n] = firstChild[parent[n]];
+            firstChild[parent[n]] = n;
+        }
+        return preorder(firstChild, nextSibling);
+    }
+
+    private int[] preorder(int[] firstChild, int[] nextSibling) {
+        int[] order = new int[size];
+        int[] stack = new int[size];
+        int sp = 0;
+        int k = 0;
+        stack[sp++] = ROOT;
+        while (sp > 0) {
+            int n = stack[--sp];
+            order[k++] = n;
+            int from = sp;
+            for (int c = firstChild[n]; c >= 0; c = nextSibling[c]) {
+                stack[sp++] = c;
+            }
+            /* reverse so the first child is popped first */
+            for (int i = from, j = sp - 1; i < j; i++, j--) {
+                int t = stack[i];
+                stack[i] = stack[j];
+                stack[j] = t;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Writes the tree in the columnar format read by {@link MappedContextTree},
+     * nodes renumbered in {@link #preorder()}.
+     */
+    public void write(File f) throws IOException {
+        int[] order = preorder();
+        int[] id = new int[size];
+        for (int i = 0; i < size; i++) {
+            id[order[i]] = i;
+        }
+        /* children follow their parent in preorder, so a backwards pass finds every subtree's end */
+        int[] end = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            end[i] = Math.max(end[i], i + 1);
+            if (i > 0) {
+                int p = id[parent[order[i]]];
+                end[p] = Math.max(end[p], end[i]);
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+        try {
+            out.writeInt(MappedContextTree.MAGIC);
+            out.writeInt((time != null ? MappedContextTree.HAS_TIME : 0)
+                    | (bytes != null ? MappedContextTree.HAS_BYTES : 0));
+            out.writeInt(size);
+            out.writeInt(0);
+            out.writeLong(skipped);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(i == ROOT ? -1 : id[parent[order[i]]]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(method[order[i]]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(end[i]);
+            }
+            if (size % 2 != 0) {
+                out.writeInt(0);
+            }
+            for (long[] column : new long[][] { count, time, bytes }) {
+                for (int i = 0; column != null && i < size; i++) {
+                    out.writeLong(column[order[i]]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Reads a tree written by {@link #write} into memory, e.g. to merge it with others. */
+    public static ContextTree read(File f) throws IOException {
+        MappedContextTree m = MappedContextTree.open(f);
+        int n = m.size();
+        ContextTree t = new ContextTree(Math.max(n, 16));
+        t.size = n;
+        t.skipped = m.skipped();
+        if (m.hasTime()) {
+            t.enableTime();
+        }
+        if (m.hasBytes()) {
+            t.enableBytes();
+        }
+        for (int i = 0; i < n; i++) {
+            t.parent[i] = m.parent(i);
+            t.method[i] = m.method(i);
+            t.count[i] = m.count(i);
+            if (t.time != null) {
+                t.time[i] = m.time(i);
+            }
+            if (t.bytes != null) {
+                t.bytes[i] = m.bytes(i);
+            }
+        }
+        for (int i = 1; i < n; i++) {
+            t.children.put((long) t.parent[i] << 32 | (t.method[i] & 0xffffffffL), i);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Count-Min sketch over 64-bit keys: {@code depth} rows of {@code width}
+ * counters. An estimate never undercounts and, with probability
+ * 1 - delta, overcounts by at most epsilon times the total added.
+ */
+final class CountMinSketch {
+    private final long[][] rows;
+    private final int width;
+    private long total;
+
+    CountMinSketch(double epsilon, double delta) {
+        width = (int) Math.ceil(Math.E / epsilon);
+        int depth = (int) Math.ceil(Math.log(1 / delta));
+        rows = new long[Math.max(depth, 1)][width];
+    }
+
+    void add(long key, long n) {
+        total += n;
+        for (int r = 0; r < rows.length; r++) {
+            rows[r][index(key, r)] += n;
+        }
+    }
+
+    long estimate(long key) {
+        long min = Long.MAX_VALUE;
+        for (int r = 0; r < rows.length; r++) {
+            min = Math.min(min, rows[r][index(key, r)]);
+        }
+        return min;
+    }
+
+    long total() {
+        return total;
+    }
+
+    /** The additive error bound epsilon * total that holds with probability 1 - delta. */
+    long errorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    private int index(long key, int row) {
+        long h = (key + row) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return (int) ((h & Long.MAX_VALUE) % width);
+    }
+}
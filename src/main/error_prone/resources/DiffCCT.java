@@ -0,0 +1,277 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the calling contexts of failing and passing runs, e.g. the
+ * per-test trees of BuildCCT -tests or TraceRuntime, and lists the contexts
+ * that are unique to or over-represented in the failing ones.
+ *
+ * Contexts of different trees are aligned by a 64-bit hash of their path of
+ * method ids, computed in one preorder pass over each memory-mapped tree
+ * with a stack of the open subtrees, and summed per group in one hash
+ * table, so only the distinct contexts are held in memory. The trees must
+ * share a symbol table. Counts of sampled trees are estimates.
+ *
+ * Each context gets the fraction of failing and of passing runs that reach
+ * it and its mean count (and inclusive time in ns, if every tree has times)
+ * per failing and per passing run. Contexts reached by a larger fraction of
+ * failing runs, or by the same fraction but more often, are printed as
+ * {@code score,failRuns,passRuns,failCount,passCount,deltaCount[,deltaTime],path}
+ * lines, where score = fail fraction / (fail + pass fraction), 1 for
+ * contexts only failing runs reach. They are ordered by score, then by the
+ * fraction of failing runs, then by how many times more often failing runs
+ * call them. The path is in QueryCCT's {@code A.m > B.n} form.
+ *
+ * Usage: java DiffCCT [-top n] methods.sym -tests dir
+ *        java DiffCCT [-top n] methods.sym pass.cct[,pass.cct...] fail.cct[,fail.cct...]
+ *
+ * where dir holds the trees and tests.csv of a per-test run; its PASS tests
+ * are the passing runs and FAIL tests the failing ones. A test method that
+ * is itself instrumented (e.g. by Instrument -entry) is the top frame of
+ * its own tree, and no other test's tree has it; it is left out of the
+ * paths, so that the contexts below it line up across tests.
+ */
+public class DiffCCT {
+    static final int PASS = 0;
+    static final int FAIL = 1;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private final List<MappedContextTree> trees = new ArrayList<MappedContextTree>();
+    /* the top frame left out of each tree's paths, or -1 */
+    private int[] testFrame = new int[16];
+    private final int[] runs = new int[2];
+    private boolean timed = true;
+
+    private final LongIntHashMap slots = new LongIntHashMap(1024, -1);
+    private int size;
+    /* a tree and node of every context, to print its path */
+    private int[] tree = new int[1024];
+    private int[] node = new int[1024];
+    /* the last tree that reached every context */
+    private int[] lastTree = new int[1024];
+    private final int[][] reached = new int[2][1024];
+    private final long[][] count = new long[2][1024];
+    private final long[][] time = new long[2][1024];
+
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        int top = 100;
+        if (args[a].equals("-top")) {
+            top = Integer.parseInt(args[a + 1]);
+            a += 2;
+        }
+        SymbolTable symbols = SymbolTable.load(new File(args[a++]));
+        DiffCCT diff = new DiffCCT();
+        if (args[a].equals("-tests")) {
+            diff.addTests(new File(args[a + 1]), symbols);
+        } else {
+            for (String f : args[a].split(",")) {
+                diff.add(MappedContextTree.open(new File(f)), PASS);
+            }
+            for (String f : args[a + 1].split(",")) {
+                diff.add(MappedContextTree.open(new File(f)), FAIL);
+            }
+        }
+        if (diff.runs[FAIL] == 0) {
+            System.err.println("no failing runs to compare");
+            return;
+        }
+        System.err.println(diff.size + " contexts in " + diff.runs[FAIL] + " failing and " + diff.runs[PASS]
+                + " passing runs");
+        diff.write(new OutputStreamWriter(System.out), symbols, top);
+    }
+
+    /** Adds the PASS and FAIL trees listed in dir/tests.csv, each without its test method's frame. */
+    public void addTests(File dir, SymbolTable symbols) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(new File(dir, "tests.csv")));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split(",");
+                int group = f[1].equals("PASS") ? PASS : f[1].equals("FAIL") ? FAIL : -1;
+                if (group >= 0) {
+                    MappedContextTree t = MappedContextTree.open(new File(dir, TestTrees.fileName(f[0]) + ".cct"));
+                    add(t, group, testFrame(t, f[0], symbols));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /* the method of a top frame named like the test, owner.name with dots for slashes, or -1 */
+    private static int testFrame(MappedContextTree t, String test, SymbolTable symbols) {
+        for (int n = 1; n < t.size(); n = t.end(n)) {
+            if (symbols.shortName(t.method(n)).replace('/', '.').equals(test)) {
+                return t.method(n);
+            }
+        }
+        return -1;
+    }
+
+    public void add(MappedContextTree t, int group) {
+        add(t, group, -1);
+    }
+
+    /** Adds a tree whose top frames of method {@code skip}, if any, are left out of the paths. */
+    public void add(MappedContextTree t, int group, int skip) {
+        int id = trees.size();
+        trees.add(t);
+        if (id == testFrame.length) {
+            testFrame = Arrays.copyOf(testFrame, id * 2);
+        }
+        testFrame[id] = skip;
+        runs[group]++;
+        timed &= t.hasTime();
+        double rate = t.samplingRate();
+        /* the end and path hash of every open subtree, innermost last */
+        int[] open = new int[16];
+        long[] hash = new long[16];
+        int depth = 0;
+        for (int n = 1; n < t.size(); n++) {
+            while (depth > 0 && open[depth - 1] <= n) {
+                depth--;
+            }
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+                hash = Arrays.copyOf(hash, depth * 2);
+            }
+            if (depth == 0 && t.method(n) == skip) {
+                /* its callees hash as if they were at the top */
+                open[depth] = t.end(n);
+                hash[depth++] = SEED;
+                continue;
+            }
+            long h = mix(31 * (depth == 0 ? SEED : hash[depth - 1]) + t.method(n));
+            int s = slot(h, id, n);
+            /* without the test frame, two contexts of one tree can share a path */
+            if (lastTree[s] != id) {
+                reached[group][s]++;
+                lastTree[s] = id;
+            }
+            count[group][s] += ContextTree.estimate(t.count(n), rate);
+            if (t.hasTime()) {
+                time[group][s] += ContextTree.estimate(t.time(n), rate);
+            }
+            open[depth] = t.end(n);
+            hash[depth++] = h;
+        }
+    }
+
+    private static long mix(long h) {
+        h *= SEED;
+        return h ^ (h >>> 29);
+    }
+
+    private int slot(long h, int t, int n) {
+        int s = slots.get(h);
+        if (s >= 0) {
+            return s;
+        }
+        if (size == tree.length) {
+            int cap = size * 2;
+            tree = Arrays.copyOf(tree, cap);
+            node = Arrays.copyOf(node, cap);
+            lastTree = Arrays.copyOf(lastTree, cap);
+            for (int g = PASS; g <= FAIL; g++) {
+                reached[g] = Arrays.copyOf(reached[g], cap);
+                count[g] = Arrays.copyOf(count[g], cap);
+                time[g] = Arrays.copyOf(time[g], cap);
+            }
+        }
+        s = size++;
+        tree[s] = t;
+        node[s] = n;
+        lastTree[s] = -1;
+        slots.put(h, s);
+        return s;
+    }
+
+    private double fraction(int group, int s) {
+        return runs[group] == 0 ? 0 : (double) reached[group][s] / runs[group];
+    }
+
+    private double mean(long[][] column, int group, int s) {
+        return runs[group] == 0 ? 0 : (double) column[group][s] / runs[group];
+    }
+
+    double score(int s) {
+        double fail = fraction(FAIL, s);
+        return fail == 0 ? 0 : fail / (fail + fraction(PASS, s));
+    }
+
+    /* how many times more often failing runs call s, one call added to both against division by zero */
+    private double ratio(int s) {
+        return (mean(count, FAIL, s) + 1) / (mean(count, PASS, s) + 1);
+    }
+
+    /** The contexts unique to or over-represented in failing runs, most suspicious first. */
+    public List<Integer> ranked() {
+        List<Integer> found = new ArrayList<Integer>();
+        for (int s = 0; s < size; s++) {
+            double fail = fraction(FAIL, s);
+            double pass = fraction(PASS, s);
+            if (fail > pass || fail > 0 && fail == pass && mean(count, FAIL, s) > mean(count, PASS, s)) {
+                found.add(s);
+            }
+        }
+        Collections.sort(found, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Double.compare(score(b), score(a));
+                if (c == 0) {
+                    c = Double.compare(fraction(FAIL, b), fraction(FAIL, a));
+                }
+                if (c == 0) {
+                    c = Double.compare(ratio(b), ratio(a));
+                }
+                return c != 0 ? c : a - b;
+            }
+        });
+        return found;
+    }
+
+    public void write(Writer w, SymbolTable symbols, int top) throws IOException {
+        BufferedWriter out = new BufferedWriter(w, 1 << 16);
+        List<Integer> ranked = ranked();
+        for (int s : ranked.subList(0, Math.min(top, ranked.size()))) {
+            double fail = mean(count, FAIL, s);
+            double pass = mean(count, PASS, s);
+            out.write(String.format(Locale.ROOT, "%.3f,%d,%d,%.1f,%.1f,%.1f", score(s), reached[FAIL][s],
+                    reached[PASS][s], fail, pass, fail - pass));
+            if (timed) {
+                out.write(String.format(Locale.ROOT, ",%.0f", mean(time, FAIL, s) - mean(time, PASS, s)));
+            }
+            out.write("," + path(s, symbols));
+            out.newLine();
+        }
+        out.flush();
+    }
+
+    private String path(int s, SymbolTable symbols) {
+        MappedContextTree t = trees.get(tree[s]);
+        List<String> path = new ArrayList<String>();
+        for (int n = node[s]; n != ContextTree.ROOT; n = t.parent(n)) {
+            if (t.parent(n) != ContextTree.ROOT || t.method(n) != testFrame[tree[s]]) {
+                path.add(symbols.shortName(t.method(n)));
+            }
+        }
+        Collections.reverse(path);
+        StringBuilder sb = new StringBuilder();
+        for (String m : path) {
+            sb.append(sb.length() == 0 ? "" : " > ").append(m);
+        }
+        return sb.toString();
+    }
+}
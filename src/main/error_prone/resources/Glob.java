@@ -0,0 +1,53 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Ant-style patterns over internal names such as {@code org/joda/time/**}:
+ * {@code **} matches across '/', {@code *} and {@code ?} stay within one
+ * package segment.
+ */
+final class Glob {
+    private Glob() {
+    }
+
+    static Pattern compile(String glob) {
+        StringBuilder re = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                re.append(".*");
+                i++;
+            } else if (c == '*') {
+                re.append("[^/]*");
+            } else if (c == '?') {
+                re.append("[^/]");
+            } else {
+                re.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(re.toString());
+    }
+
+    /** Compiles a comma separated list of globs; an empty or null list gives no patterns. */
+    static List<Pattern> compileAll(String globs) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        if (globs != null) {
+            for (String g : globs.split(",")) {
+                if (!g.trim().isEmpty()) {
+                    patterns.add(compile(g.trim()));
+                }
+            }
+        }
+        return patterns;
+    }
+
+    static boolean matchesAny(List<Pattern> patterns, String name) {
+        for (Pattern p : patterns) {
+            if (p.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
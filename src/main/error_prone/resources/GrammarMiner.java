@@ -0,0 +1,209 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link SequenceMiner} on a {@link TraceGrammar} instead of the trace, with
+ * the same CSV. Every rule is visited once however often it is used: first
+ * each rule's number of uses is propagated down from the threads (rules only
+ * use smaller rules), then each rule body counts, weighted by its uses, the
+ * sequences that are not inside a single one of its symbols, i.e. those that
+ * end in a call of its own or cross from one symbol into the next. For that
+ * a rule only needs its first and last k-1 calls. A symbol repeated n times
+ * is fed explicitly only until the window of the last k-1 calls stops
+ * changing from one repetition to the next; the remaining repetitions are
+ * counted at once. Sequences do not span a gap, so of a rule with gaps
+ * only the calls before the first and after the last one matter outside.
+ *
+ * Usage: java GrammarMiner in.grammar methods.sym k out.csv
+ */
+public class GrammarMiner {
+    private final TraceGrammar grammar;
+    private final int k;
+    private final ContextTree trie = new ContextTree();
+    private long[] length;
+    private int[][] head;
+    private int[][] tail;
+    private boolean[] gap;
+    /* the last k-1 calls, oldest first, and how many are valid */
+    private final int[] window;
+    private int filled;
+
+    public GrammarMiner(TraceGrammar grammar, int k) {
+        this.grammar = grammar;
+        this.k = k;
+        this.window = new int[Math.max(k - 1, 1)];
+    }
+
+    public static void main(final String args[]) throws IOException {
+        File sym = new File(args[1]);
+        int k = Integer.parseInt(args[2]);
+        GrammarMiner miner = new GrammarMiner(TraceGrammar.read(new File(args[0])), k);
+        SequenceMiner.write(miner.mine(), new File(args[3]), SymbolTable.load(sym));
+        System.out.println("All sequence till length " + k + " are generated");
+    }
+
+    public ContextTree mine() {
+        int rules = grammar.ruleSymbols.size();
+        length = new long[rules];
+        head = new int[rules][];
+        tail = new int[rules][];
+        gap = new boolean[rules];
+        for (int r = 0; r < rules; r++) {
+            summarize(r);
+        }
+
+        long[] uses = new long[rules];
+        for (TraceGrammar.Sequence s : grammar.threads.values()) {
+            addUses(uses, s.symbols, s.reps, s.size, 1);
+        }
+        for (int r = rules - 1; r >= 0; r--) {
+            addUses(uses, grammar.ruleSymbols.get(r), grammar.ruleReps.get(r), grammar.ruleSymbols.get(r).length,
+                    uses[r]);
+        }
+
+        for (TraceGrammar.Sequence s : grammar.threads.values()) {
+            count(s.symbols, s.reps, s.size, 1);
+        }
+        for (int r = 0; r < rules; r++) {
+            if (uses[r] > 0) {
+                count(grammar.ruleSymbols.get(r), grammar.ruleReps.get(r), grammar.ruleSymbols.get(r).length, uses[r]);
+            }
+        }
+        return trie;
+    }
+
+    private static void addUses(long[] uses, int[] symbols, long[] reps, int size, long times) {
+        for (int i = 0; i < size; i++) {
+            if (TraceGrammar.isRule(symbols[i])) {
+                uses[TraceGrammar.rule(symbols[i])] += times * reps[i];
+            }
+        }
+    }
+
+    /*
+     * the number of calls of rule r, whether it contains a gap, and its first
+     * and last k-1 calls, only up to the first and from the last gap
+     */
+    private void summarize(int r) {
+        int[] symbols = grammar.ruleSymbols.get(r);
+        long[] reps = grammar.ruleReps.get(r);
+        int keep = k - 1;
+        int[] first = new int[keep];
+        int firstSize = 0;
+        boolean firstDone = false;
+        int[] last = new int[keep];
+        int lastSize = 0;
+        long n = 0;
+        for (int i = 0; i < symbols.length; i++) {
+            boolean g = hasGap(symbols[i]);
+            gap[r] |= g;
+            long len = symbolLength(symbols[i]);
+            n += len * reps[i];
+            int[] calls = calls(symbols[i]);
+            for (long j = 0; j < reps[i] && firstSize < keep && !firstDone; j++) {
+                for (int c = 0; c < calls.length && firstSize < keep; c++) {
+                    first[firstSize++] = calls[c];
+                }
+                firstDone = g;
+            }
+            if (g) {
+                /* only what follows the last gap of the last repetition */
+                int[] end = TraceGrammar.isRule(symbols[i]) ? tail[TraceGrammar.rule(symbols[i])] : calls;
+                System.arraycopy(end, 0, last, 0, end.length);
+                lastSize = end.length;
+                continue;
+            }
+            if (len == 0) {
+                continue;
+            }
+            /* only the last repetitions that reach into the last k-1 calls */
+            int[] end = len > calls.length ? tail[TraceGrammar.rule(symbols[i])] : calls;
+            for (long j = Math.min(reps[i], (keep + len - 1) / len); j > 0; j--) {
+                for (int c : end) {
+                    if (lastSize == keep) {
+                        System.arraycopy(last, 1, last, 0, keep - 1);
+                        lastSize--;
+                    }
+                    last[lastSize++] = c;
+                }
+            }
+        }
+        length[r] = n;
+        head[r] = Arrays.copyOf(first, firstSize);
+        tail[r] = Arrays.copyOf(last, lastSize);
+    }
+
+    private boolean hasGap(int symbol) {
+        return symbol == TraceGrammar.GAP || TraceGrammar.isRule(symbol) && gap[TraceGrammar.rule(symbol)];
+    }
+
+    private long symbolLength(int symbol) {
+        if (TraceGrammar.isRule(symbol)) {
+            return length[TraceGrammar.rule(symbol)];
+        }
+        return symbol != TraceGrammar.GAP && (symbol & TraceRuntime.KIND_MASK) == TraceRuntime.CALL ? 1 : 0;
+    }
+
+    /* the first calls of a symbol, all of them unless it is a rule with more than k-1 or a gap */
+    private int[] calls(int symbol) {
+        if (TraceGrammar.isRule(symbol)) {
+            return head[TraceGrammar.rule(symbol)];
+        }
+        return symbolLength(symbol) == 0 ? new int[0] : new int[] { symbol >>> TraceRuntime.KIND_BITS };
+    }
+
+    private void count(int[] symbols, long[] reps, int size, long weight) {
+        filled = 0;
+        for (int i = 0; i < size; i++) {
+            int s = symbols[i];
+            long len = symbolLength(s);
+            if (len == 0) {
+                if (hasGap(s)) {
+                    filled = 0;
+                }
+                continue;
+            }
+            boolean own = !TraceGrammar.isRule(s);
+            /* after this many repetitions the window holds only calls of s and stops changing */
+            long explicit = Math.min(reps[i], (k - 1 + len - 1) / len + 1);
+            for (long j = 1; j <= explicit; j++) {
+                feed(s, len, own, j < explicit ? weight : weight * (reps[i] - explicit + 1));
+            }
+        }
+    }
+
+    /*
+     * counts the sequences ending in the first calls of one occurrence of s
+     * that start before it, or all of them if s is a call of the body itself
+     */
+    private void feed(int s, long len, boolean own, long weight) {
+        int[] calls = calls(s);
+        for (int i = 0; i < calls.length; i++) {
+            for (int d = own ? 1 : i + 2; d <= Math.min(k, filled + 1); d++) {
+                int n = ContextTree.ROOT;
+                for (int j = filled - d + 1; j <= filled; j++) {
+                    n = trie.child(n, j < filled ? window[j] : calls[i]);
+                }
+                trie.add(n, weight);
+            }
+            shift(calls[i]);
+        }
+        if (len > calls.length || hasGap(s)) {
+            int[] end = tail[TraceGrammar.rule(s)];
+            System.arraycopy(end, 0, window, 0, end.length);
+            filled = end.length;
+        }
+    }
+
+    private void shift(int call) {
+        if (k == 1) {
+            return;
+        }
+        if (filled == window.length) {
+            System.arraycopy(window, 1, window, 0, filled - 1);
+            filled--;
+        }
+        window[filled++] = call;
+    }
+}
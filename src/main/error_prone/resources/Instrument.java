@@ -1,3 +1,4 @@
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -8,59 +9,265 @@ import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
 
+/**
+ * Usage: java Instrument [-entry] [-include rules] [-exclude rules] [-internal]
+ *            [-trivial implied.csv] <in.class|classes-dir|classes.jar> <out> [methods.sym]
+ *
+ * By default every call site is wrapped in CALL/RETURN events. With -entry
+ * the method bodies are instrumented instead (see {@link TraceEntriesAdapter}):
+ * only calls into instrumented code are traced, and RETURN is also recorded
+ * when a method completes by throwing.
+ *
+ * -include and -exclude select the called (or, with -entry, instrumented)
+ * methods by {@link CallFilter} rules, and -internal keeps only calls to
+ * classes of the input; other call sites are left untouched.
+ *
+ * -trivial leaves calls to the trivial leaf methods of the input, getters,
+ * setters, constant returns and empty constructors (see
+ * {@link TrivialMethods}), untraced, or with -entry those methods
+ * uninstrumented, and writes how many such call sites every caller has to
+ * implied.csv.
+ */
 public class Instrument {
     public static void main(final String args[]) throws Exception {
-        FileInputStream is = new FileInputStream(args[0]);
-        byte[] b;
+        int a = 0;
+        boolean entry = false;
+        boolean internal = false;
+        String include = null;
+        String exclude = null;
+        String implied = null;
+        for (; args[a].startsWith("-"); a++) {
+            if (args[a].equals("-entry")) {
+                entry = true;
+            } else if (args[a].equals("-internal")) {
+                internal = true;
+            } else if (args[a].equals("-include")) {
+                include = args[++a];
+            } else if (args[a].equals("-exclude")) {
+                exclude = args[++a];
+            } else if (args[a].equals("-trivial")) {
+                implied = args[++a];
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        CallFilter filter = new CallFilter(include, exclude, internal);
+        if (implied != null) {
+            filter.skipTrivial(new TrivialMethods());
+        }
+        File in = new File(args[a]);
+        File sym = new File(args.length > a + 2 ? args[a + 2] : "methods.sym");
+        if (sym.getAbsoluteFile().getParentFile() != null) {
+            sym.getAbsoluteFile().getParentFile().mkdirs();
+        }
 
-        ClassReader cr = new ClassReader(is);
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-        ClassVisitor cv = new TraceCallsClassAdapter(cw);
-        cr.accept(cv, 0);
-        b = cw.toByteArray();
+        SymbolTable symbols = SymbolTable.open(sym);
+        try {
+            if (BatchInstrument.accepts(in)) {
+                new BatchInstrument(in, symbols, entry, filter).run(new File(args[a + 1]));
+            } else {
+                byte[] b = BatchInstrument.read(new FileInputStream(in));
+                ClassReader cr = new ClassReader(b);
+                ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+                filter.addClass(cr.getClassName());
+                if (implied != null) {
+                    filter.trivial().add(b);
+                    filter.trivial().resolve();
+                }
+                b = instrument(cr, cw, symbols, entry, filter);
 
-        FileOutputStream fos = new FileOutputStream(args[1]);
-        fos.write(b);
-        fos.close();
+                FileOutputStream fos = new FileOutputStream(args[a + 1]);
+                fos.write(b);
+                fos.close();
+            }
+            if (implied != null) {
+                filter.trivial().writeImplied(new File(implied));
+            }
+        } finally {
+            symbols.close();
+        }
+    }
+
+    static byte[] instrument(ClassReader cr, ClassWriter cw, SymbolTable symbols, boolean entry,
+            CallFilter filter) {
+        ClassVisitor cv = entry ? new TraceEntriesClassAdapter(cw, symbols, filter)
+                : new TraceCallsClassAdapter(cw, symbols, filter);
+        cr.accept(cv, entry ? ClassReader.EXPAND_FRAMES : 0);
+        return cw.toByteArray();
     }
 }
 
 class TraceCallsClassAdapter extends ClassVisitor implements Opcodes {
+    private final SymbolTable symbols;
+    private final CallFilter filter;
+    private String owner;
 
-    public TraceCallsClassAdapter(final ClassVisitor cv) {
+    public TraceCallsClassAdapter(final ClassVisitor cv, final SymbolTable symbols, final CallFilter filter) {
         super(Opcodes.ASM5, cv);
+        this.symbols = symbols;
+        this.filter = filter;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+            String[] interfaces) {
+        owner = name;
+        super.visit(version, access, name, signature, superName, interfaces);
     }
 
     @Override
     public MethodVisitor visitMethod(final int access, final String name,
             final String desc, final String signature, final String[] exceptions) {
         MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
-        return mv == null ? null : new TraceCallsAdapter(mv);
+        return mv == null ? null : new TraceCallsAdapter(mv, symbols, filter, owner + "." + name + desc);
     }
 }
 
 class TraceCallsAdapter extends MethodVisitor implements Opcodes {
+    static final String RUNTIME = Type.getInternalName(TraceRuntime.class);
 
-    public TraceCallsAdapter(final MethodVisitor mv) {
+    private final SymbolTable symbols;
+    private final CallFilter filter;
+    private final String caller;
+
+    public TraceCallsAdapter(final MethodVisitor mv, final SymbolTable symbols, final CallFilter filter,
+            final String caller) {
         super(Opcodes.ASM5, mv);
+        this.symbols = symbols;
+        this.filter = filter;
+        this.caller = caller;
     }
 
     @Override
     public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+        if (!filter.accepts(owner, name, desc)) {
+            mv.visitMethodInsn(opcode, owner, name, desc, itf);
+            return;
+        }
+        if (filter.isTrivialCall(opcode, owner, name, desc)) {
+            filter.recordImplied(caller, owner, name, desc);
+            mv.visitMethodInsn(opcode, owner, name, desc, itf);
+            return;
+        }
+        int id = symbols.id(owner + "." + name + desc);
 
-        mv.visitFieldInsn(GETSTATIC, "java/lang/System", "err", "Ljava/io/PrintStream;");
-        mv.visitLdcInsn("CALL " + owner + "." + name);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+        pushInt(mv, id);
+        mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "call", "(I)V", false);
 
         mv.visitMethodInsn(opcode, owner, name, desc, itf);
 
-        mv.visitFieldInsn(GETSTATIC, "java/lang/System", "err", "Ljava/io/PrintStream;");
-        mv.visitLdcInsn("RETURN " + owner + "." + name);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+        pushInt(mv, id);
+        mv.visitMethodInsn(INVOKESTATIC, RUNTIME, "ret", "(I)V", false);
+    }
+
+    static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+}
+
+class TraceEntriesClassAdapter extends ClassVisitor implements Opcodes {
+    private final SymbolTable symbols;
+    private final CallFilter filter;
+    private String owner;
+
+    public TraceEntriesClassAdapter(final ClassVisitor cv, final SymbolTable symbols, final CallFilter filter) {
+        super(Opcodes.ASM5, cv);
+        this.symbols = symbols;
+        this.filter = filter;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+            String[] interfaces) {
+        owner = name;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(final int access, final String name,
+            final String desc, final String signature, final String[] exceptions) {
+        MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
+        if (mv == null || (access & (ACC_ABSTRACT | ACC_NATIVE)) != 0 || !filter.accepts(owner, name, desc)
+                || filter.isTrivial(owner, name, desc)) {
+            return mv;
+        }
+        return new TraceEntriesAdapter(mv, access, name, desc, symbols.id(owner + "." + name + desc), filter,
+                owner + "." + name + desc);
     }
 }
 
+/**
+ * Records CALL on entry to a method and RETURN before each return
+ * instruction and in a catch-all handler that rethrows, so every CALL is
+ * matched even when the method completes abruptly.
+ *
+ * Constructors record CALL only once the superclass or this(...) constructor
+ * has returned, because the handler may not cover code that runs on an
+ * uninitialized this; the super constructor therefore shows up as a sibling
+ * rather than a child of the constructor that invoked it.
+ */
+class TraceEntriesAdapter extends AdviceAdapter {
+    private final int id;
+    private final CallFilter filter;
+    private final String caller;
+    private final Label start = new Label();
+
+    TraceEntriesAdapter(final MethodVisitor mv, int access, String name, String desc, int id, CallFilter filter,
+            String caller) {
+        super(Opcodes.ASM5, mv, access, name, desc);
+        this.id = id;
+        this.filter = filter;
+        this.caller = caller;
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+        /* a trivial callee is not instrumented; only calls into the instrumented code count */
+        if (filter.isInternal(owner) && filter.accepts(owner, name, desc)
+                && filter.isTrivialCall(opcode, owner, name, desc)) {
+            filter.recordImplied(caller, owner, name, desc);
+        }
+        super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+        TraceCallsAdapter.pushInt(mv, id);
+        mv.visitMethodInsn(INVOKESTATIC, TraceCallsAdapter.RUNTIME, "call", "(I)V", false);
+        mv.visitLabel(start);
+    }
+
+    @Override
+    protected void onMethodExit(int opcode) {
+        /* a throw is caught by the handler below */
+        if (opcode != ATHROW) {
+            TraceCallsAdapter.pushInt(mv, id);
+            mv.visitMethodInsn(INVOKESTATIC, TraceCallsAdapter.RUNTIME, "ret", "(I)V", false);
+        }
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        Label handler = new Label();
+        mv.visitTryCatchBlock(start, handler, handler, null);
+        mv.visitLabel(handler);
+        TraceCallsAdapter.pushInt(mv, id);
+        mv.visitMethodInsn(INVOKESTATIC, TraceCallsAdapter.RUNTIME, "ret", "(I)V", false);
+        mv.visitInsn(ATHROW);
+        super.visitMaxs(maxStack, maxLocals);
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from int keys to long values with linear probing,
+ * for counters keyed by method id. Keys must not be negative: a free slot
+ * holds -1. Absent keys count as 0.
+ */
+final class IntLongHashMap {
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+
+    IntLongHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+        keys = new int[cap];
+        Arrays.fill(keys, FREE);
+        values = new long[cap];
+        mask = cap - 1;
+    }
+
+    long get(int key) {
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            if (keys[i] == FREE) {
+                return 0;
+            }
+        }
+    }
+
+    void add(int key, long delta) {
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            if (keys[i] == FREE) {
+                keys[i] = key;
+                values[i] = delta;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                return;
+            }
+        }
+    }
+
+    /** Adds every count of other to this map. */
+    void addAll(IntLongHashMap other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != FREE) {
+                add(other.keys[i], other.values[i]);
+            }
+        }
+    }
+
+    /** The keys, in no particular order. */
+    int[] keys() {
+        int[] k = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != FREE) {
+                k[n++] = key;
+            }
+        }
+        return k;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, FREE);
+        values = new long[keys.length];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                add(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a calling context tree file, memory-mapped so that
+ * opening even a tree of millions of nodes costs no heap and no parsing.
+ *
+ * The file is a 24 byte header (magic "CCTC", flags, node count, padding,
+ * skipped calls) followed by columns of primitives: parent, method and
+ * subtree end as ints, padded to 8 bytes, then count and, if flagged,
+ * inclusive time and bytes as longs. Nodes are in preorder with the root
+ * first, so the subtree of n is the node range [n, end(n)) and its children
+ * are n + 1, end(n + 1), ... up to end(n).
+ */
+public final class MappedContextTree {
+    static final int MAGIC = 0x43435443; // "CCTC"
+    static final int HAS_TIME = 1;
+    static final int HAS_BYTES = 2;
+    private static final int HEADER_BYTES = 24;
+
+    private final int size;
+    private final long skipped;
+    private final IntBuffer parent;
+    private final IntBuffer method;
+    private final IntBuffer end;
+    private final LongBuffer count;
+    private final LongBuffer time;
+    private final LongBuffer bytes;
+
+    private MappedContextTree(FileChannel channel, int flags, int size, long skipped) throws IOException {
+        this.size = size;
+        this.skipped = skipped;
+        long ints = 4L * size;
+        long longs = 8L * size;
+        parent = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, ints).asIntBuffer();
+        method = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + ints, ints).asIntBuffer();
+        end = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 2 * ints, ints).asIntBuffer();
+        long at = HEADER_BYTES + 3 * ints + (size % 2 != 0 ? 4 : 0);
+        count = channel.map(FileChannel.MapMode.READ_ONLY, at, longs).asLongBuffer();
+        at += longs;
+        if ((flags & HAS_TIME) != 0) {
+            time = channel.map(FileChannel.MapMode.READ_ONLY, at, longs).asLongBuffer();
+            at += longs;
+        } else {
+            time = null;
+        }
+        bytes = (flags & HAS_BYTES) != 0 ? channel.map(FileChannel.MapMode.READ_ONLY, at, longs).asLongBuffer() : null;
+    }
+
+    public static MappedContextTree open(File f) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_BYTES || file.readInt() != MAGIC) {
+                throw new IOException(f + " is not a calling context tree");
+            }
+            int flags = file.readInt();
+            int size = file.readInt();
+            file.readInt();
+            return new MappedContextTree(channel, flags, size, file.readLong());
+        } finally {
+            /* the mappings stay valid after the file is closed */
+            file.close();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long skipped() {
+        return skipped;
+    }
+
+    public int parent(int node) {
+        return parent.get(node);
+    }
+
+    public int method(int node) {
+        return method.get(node);
+    }
+
+    /** One past the last node of the subtree of {@code node}. */
+    public int end(int node) {
+        return end.get(node);
+    }
+
+    public long count(int node) {
+        return count.get(node);
+    }
+
+    public boolean hasTime() {
+        return time != null;
+    }
+
+    public long time(int node) {
+        return time.get(node);
+    }
+
+    /** The inclusive time of {@code node} minus that of its children. */
+    public long exclusiveTime(int node) {
+        return exclusive(time, node);
+    }
+
+    public boolean hasBytes() {
+        return bytes != null;
+    }
+
+    public long bytes(int node) {
+        return bytes.get(node);
+    }
+
+    public long exclusiveBytes(int node) {
+        return exclusive(bytes, node);
+    }
+
+    /** The fraction of all calls that were traced, 1 for an unsampled tree. */
+    public double samplingRate() {
+        long traced = 0;
+        for (int i = 1; i < size; i++) {
+            traced += count.get(i);
+        }
+        return traced == 0 ? 1 : (double) traced / (traced + skipped);
+    }
+
+    /**
+     * Writes the tab-indented report of CallingContextTree, one
+     * {@code <depth>CALL owner.name <COUNT>n} line per context. Counts of a
+     * sampled tree are estimates followed by {@code <BOUND>b}, the half-width
+     * of their 95% confidence interval. A profile adds inclusive and
+     * exclusive {@code <TIME>} in ns and {@code <BYTES>}, as inclusive/exclusive.
+     */
+    public void writeText(Writer w, SymbolTable symbols) throws IOException {
+        BufferedWriter out = new BufferedWriter(w, 1 << 16);
+        double rate = samplingRate();
+        /* the end of every open subtree, innermost last; its size is the depth */
+        int[] open = new int[16];
+        int depth = 0;
+        for (int n = 1; n < size; n++) {
+            while (depth > 0 && open[depth - 1] <= n) {
+                depth--;
+            }
+            for (int i = 0; i < depth; i++) {
+                out.write('\t');
+            }
+            out.write("<" + depth + ">CALL " + symbols.shortName(method(n)));
+            long c = count(n);
+            if (skipped == 0) {
+                out.write(" <COUNT>" + c);
+            } else {
+                out.write(" <COUNT>" + ContextTree.estimate(c, rate) + " <BOUND>" + ContextTree.bound(c, rate));
+            }
+            if (time != null) {
+                out.write(" <TIME>" + ContextTree.estimate(time(n), rate) + "/"
+                        + ContextTree.estimate(exclusive(time, n), rate));
+            }
+            if (bytes != null) {
+                out.write(" <BYTES>" + ContextTree.estimate(bytes(n), rate) + "/"
+                        + ContextTree.estimate(exclusive(bytes, n), rate));
+            }
+            out.newLine();
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+            }
+            open[depth++] = end(n);
+        }
+        out.flush();
+    }
+
+    /* inclusive value of n minus that of its children */
+    private long exclusive(LongBuffer column, int n) {
+        long ex = column.get(n);
+        for (int c = n + 1, e = end(n); c < e; c = end(c)) {
+            ex -= column.get(c);
+        }
+        return ex;
+    }
+}
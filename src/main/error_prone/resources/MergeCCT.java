@@ -0,0 +1,19 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Merges calling context trees built separately, e.g. per thread or per
+ * surefire fork, into one.
+ *
+ * Usage: java MergeCCT out.cct in.cct...
+ */
+public class MergeCCT {
+    public static void main(final String args[]) throws IOException {
+        ContextTree merged = new ContextTree();
+        for (int i = 1; i < args.length; i++) {
+            merged.merge(ContextTree.read(new File(args[i])));
+        }
+        merged.write(new File(args[0]));
+        System.out.println("merged " + (args.length - 1) + " trees: " + merged.size() + " contexts");
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the calls of every method in a binary or text trace and writes
+ * methodcount.csv, {@code methods,count} rows most frequent first, as the
+ * visualization scripts read it.
+ *
+ * The trace is cut into ranges, whole chunks of a binary trace or the lines
+ * starting in a span of bytes of a text trace, that are read from
+ * memory-mapped windows in parallel on a {@link ForkJoinPool}. Each range
+ * counts by method id into its own {@link IntLongHashMap}, and the partial
+ * counts are merged pairwise, so nothing is allocated per call. Methods are
+ * printed as owner.name, overloads summed, unless -desc asks for the full
+ * key or -ids for the raw method ids. Calls skipped by a sampled trace are
+ * not counted.
+ *
+ * Usage: java MethodFrequency [-desc|-ids] [-threads n] <trace> methods.sym [methodcount.csv]
+ */
+public class MethodFrequency {
+    private static final int RANGES_PER_THREAD = 4;
+
+    private final File trace;
+    private final boolean binary;
+    private final SymbolTable symbols;
+
+    MethodFrequency(File trace, boolean binary, SymbolTable symbols) {
+        this.trace = trace;
+        this.binary = binary;
+        this.symbols = symbols;
+    }
+
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        String format = "";
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (; args[a].startsWith("-"); a++) {
+            if (args[a].equals("-desc") || args[a].equals("-ids")) {
+                format = args[a];
+            } else if (args[a].equals("-threads")) {
+                threads = Integer.parseInt(args[++a]);
+                if (threads < 1) {
+                    throw new IllegalArgumentException("-threads must be at least 1");
+                }
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        File trace = new File(args[a]);
+        File sym = new File(args[a + 1]);
+        File out = new File(args.length > a + 2 ? args[a + 2] : "methodcount.csv");
+
+        boolean binary = TraceReader.isBinary(trace.getPath());
+        /* the names of a text trace are interned as they are read */
+        SymbolTable symbols = binary ? SymbolTable.load(sym) : SymbolTable.open(sym);
+        IntLongHashMap counts;
+        try {
+            MethodFrequency frequency = new MethodFrequency(trace, binary, symbols);
+            counts = frequency.count(new ForkJoinPool(threads), threads * RANGES_PER_THREAD);
+        } finally {
+            symbols.close();
+        }
+        write(counts, symbols, format, out);
+        System.out.println(counts.size() + " methods called");
+    }
+
+    /** Counts the calls of every method id, reading about parts ranges in parallel. */
+    public IntLongHashMap count(ForkJoinPool pool, int parts) throws IOException {
+        List<long[]> ranges = TraceReader.ranges(trace, binary, parts);
+        if (ranges.isEmpty()) {
+            return new IntLongHashMap(16);
+        }
+        return pool.invoke(new Count(ranges, 0, ranges.size()));
+    }
+
+    private IntLongHashMap count(long from, long to) throws IOException {
+        final IntLongHashMap counts = new IntLongHashMap(1 << 12);
+        TraceReader.Visitor counter = new TraceReader.Visitor() {
+            @Override
+            public void call(long thread, int method) {
+                counts.add(method, 1);
+            }
+
+            @Override
+            public void ret(long thread, int method) {
+            }
+
+            @Override
+            public void burst(long thread, int skipped, int[] context) {
+            }
+
+            @Override
+            public void test(long thread, String test, int status) {
+            }
+        };
+        if (binary) {
+            TraceReader.read(trace, from, to, counter);
+        } else {
+            TraceReader.readText(trace, from, to, symbols, counter);
+        }
+        return counts;
+    }
+
+    /** Writes the counts as methods,count rows, most frequent first, then by name. */
+    static void write(IntLongHashMap counts, SymbolTable symbols, String format, File out) throws IOException {
+        final Map<String, Long> byName = new HashMap<String, Long>();
+        for (int m : counts.keys()) {
+            String name = format.equals("-ids") ? Integer.toString(m)
+                    : format.equals("-desc") ? symbols.name(m) : symbols.shortName(m);
+            Long n = byName.get(name);
+            byName.put(name, (n == null ? 0 : n) + counts.get(m));
+        }
+        List<String> names = new ArrayList<String>(byName.keySet());
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int c = Long.compare(byName.get(b), byName.get(a));
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        BufferedWriter w = new BufferedWriter(new FileWriter(out), 1 << 16);
+        try {
+            w.write("methods,count");
+            w.newLine();
+            for (String name : names) {
+                w.write(name);
+                w.write(',');
+                w.write(Long.toString(byName.get(name)));
+                w.newLine();
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class Count extends RecursiveTask<IntLongHashMap> {
+        private final List<long[]> ranges;
+        private final int from;
+        private final int to;
+
+        Count(List<long[]> ranges, int from, int to) {
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected IntLongHashMap compute() {
+            if (to - from == 1) {
+                try {
+                    return count(ranges.get(from)[0], ranges.get(from)[1]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int mid = (from + to) >>> 1;
+            Count right = new Count(ranges, mid, to);
+            right.fork();
+            IntLongHashMap left = new Count(ranges, from, mid).compute();
+            left.addAll(right.join());
+            return left;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * {@link SequenceMiner} split across cores. The trace is cut into ranges
+ * the way {@link MethodFrequency} cuts it, whole chunks of a binary trace or
+ * spans of bytes of a text trace, each read from memory-mapped windows by
+ * one shard. A shard counts the sequences that start inside its range into
+ * its own count trie, then reads on past the range only as far as it takes
+ * to finish them: up to k-1 more calls of every thread that had one open,
+ * skipping chunks of other threads. The tries are merged pairwise on a
+ * {@link ForkJoinPool}, so the counts and the CSV are identical to the
+ * sequential miner's, and no shard holds more than its trie and a window of
+ * k nodes per thread.
+ *
+ * Usage: java ParallelSequenceMiner [-threads n] <trace> methods.sym k out.csv
+ */
+public class ParallelSequenceMiner {
+    private static final int RANGES_PER_THREAD = 4;
+    /* bytes of a text trace read at first past a range; doubled until the open sequences end */
+    private static final long TEXT_OVERLAP_BYTES = 1 << 16;
+
+    private final File trace;
+    private final boolean binary;
+    private final SymbolTable symbols;
+    private final int k;
+    private long[] chunks;
+    private long[] chunkThreads;
+
+    ParallelSequenceMiner(File trace, boolean binary, SymbolTable symbols, int k) {
+        this.trace = trace;
+        this.binary = binary;
+        this.symbols = symbols;
+        this.k = k;
+    }
+
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (; args[a].startsWith("-"); a++) {
+            if (args[a].equals("-threads")) {
+                threads = Integer.parseInt(args[++a]);
+                if (threads < 1) {
+                    throw new IllegalArgumentException("-threads must be at least 1");
+                }
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        File trace = new File(args[a]);
+        File sym = new File(args[a + 1]);
+        int k = Integer.parseInt(args[a + 2]);
+
+        boolean binary = TraceReader.isBinary(trace.getPath());
+        /* the names of a text trace are interned as they are read */
+        SymbolTable symbols = binary ? SymbolTable.load(sym) : SymbolTable.open(sym);
+        ContextTree trie;
+        try {
+            ParallelSequenceMiner miner = new ParallelSequenceMiner(trace, binary, symbols, k);
+            trie = miner.mine(new ForkJoinPool(threads), threads * RANGES_PER_THREAD);
+        } finally {
+            symbols.close();
+        }
+        SequenceMiner.write(trie, new File(args[a + 3]), symbols);
+        System.out.println("All sequence till length " + k + " are generated");
+    }
+
+    /** Counts the sequences of length 1..k, reading about parts ranges in parallel. */
+    public ContextTree mine(ForkJoinPool pool, int parts) throws IOException {
+        List<long[]> ranges = TraceReader.ranges(trace, binary, parts);
+        if (ranges.isEmpty()) {
+            return new ContextTree();
+        }
+        if (binary) {
+            chunks = TraceReader.chunks(trace);
+            chunkThreads = TraceReader.chunkThreads(trace, chunks);
+        }
+        return pool.invoke(new Mine(ranges, 0, ranges.size()));
+    }
+
+    /* counts the sequences that start in [from, to) */
+    private ContextTree mine(long from, long to) throws IOException {
+        Shard shard = new Shard(k);
+        read(from, to, shard);
+        shard.closeRange();
+        if (binary) {
+            for (int c = chunkIndex(to); c < chunks.length && shard.hasOpen(); c++) {
+                if (shard.isOpen(chunkThreads[c])) {
+                    TraceReader.read(trace, chunks[c], chunks[c] + 1, shard);
+                }
+            }
+        } else {
+            long size = trace.length();
+            for (long step = TEXT_OVERLAP_BYTES; to < size && shard.hasOpen(); to += step, step *= 2) {
+                read(to, Math.min(size, to + step), shard);
+            }
+        }
+        return shard.trie;
+    }
+
+    private void read(long from, long to, TraceReader.Visitor v) throws IOException {
+        if (binary) {
+            TraceReader.read(trace, from, to, v);
+        } else {
+            TraceReader.readText(trace, from, to, symbols, v);
+        }
+    }
+
+    /* the first chunk starting at or after pos */
+    private int chunkIndex(long pos) {
+        int lo = 0;
+        int hi = chunks.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (chunks[mid] < pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The sequence windows of one range, per thread (see
+     * {@link SequenceMiner#advance}). Past the end of the range no new
+     * sequence starts, and a thread is dropped once its window is empty.
+     */
+    static final class Shard implements TraceReader.Visitor {
+        final ContextTree trie = new ContextTree();
+        private final int k;
+        private final Map<Long, int[]> windows = new HashMap<Long, int[]>();
+        private boolean past;
+        private long lastThread = -1;
+        private int[] last;
+
+        Shard(int k) {
+            this.k = k;
+        }
+
+        /* stops new sequences from starting; the open ones go on */
+        void closeRange() {
+            past = true;
+            last = null;
+            for (Iterator<int[]> it = windows.values().iterator(); it.hasNext();) {
+                int[] window = it.next();
+                window[0] = -1;
+                if (isEmpty(window)) {
+                    it.remove();
+                }
+            }
+        }
+
+        boolean hasOpen() {
+            return !windows.isEmpty();
+        }
+
+        boolean isOpen(long thread) {
+            return windows.containsKey(thread);
+        }
+
+        @Override
+        public void call(long thread, int method) {
+            if (thread != lastThread || last == null) {
+                last = windows.get(thread);
+                if (last == null) {
+                    if (past) {
+                        return;
+                    }
+                    last = SequenceMiner.newWindow(k);
+                    windows.put(thread, last);
+                }
+                lastThread = thread;
+            }
+            SequenceMiner.advance(trie, last, method);
+            if (past && isEmpty(last)) {
+                windows.remove(thread);
+                last = null;
+            }
+        }
+
+        @Override
+        public void ret(long thread, int method) {
+        }
+
+        /* sequences do not span the calls a sampled trace skipped */
+        @Override
+        public void burst(long thread, int skipped, int[] context) {
+            if (past) {
+                windows.remove(thread);
+            } else {
+                windows.put(thread, SequenceMiner.newWindow(k));
+            }
+            last = null;
+        }
+
+        @Override
+        public void test(long thread, String test, int status) {
+        }
+
+        private static boolean isEmpty(int[] window) {
+            for (int n : window) {
+                if (n >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class Mine extends RecursiveTask<ContextTree> {
+        private final List<long[]> ranges;
+        private final int from;
+        private final int to;
+
+        Mine(List<long[]> ranges, int from, int to) {
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ContextTree compute() {
+            if (to - from == 1) {
+                try {
+                    return mine(ranges.get(from)[0], ranges.get(from)[1]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int mid = (from + to) >>> 1;
+            Mine right = new Mine(ranges, mid, to);
+            right.fork();
+            ContextTree left = new Mine(ranges, from, mid).compute();
+            left.merge(right.join());
+            return left;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints a calling context tree file in CallingContextTree's text format,
+ * or with -methods the number of calls of every method as
+ * {@code method,count,low,high} lines, most frequent first. Counts of a
+ * sampled tree are estimates and low..high is their 95% confidence
+ * interval; otherwise low and high equal the count. The tree is
+ * memory-mapped (see {@link MappedContextTree}), not loaded.
+ *
+ * Usage: java PrintCCT [-methods] tree.cct methods.sym
+ */
+public class PrintCCT {
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        boolean methods = args[a].equals("-methods");
+        if (methods) {
+            a++;
+        }
+        MappedContextTree tree = MappedContextTree.open(new File(args[a]));
+        SymbolTable symbols = SymbolTable.load(new File(args[a + 1]));
+        if (!methods) {
+            tree.writeText(new OutputStreamWriter(System.out), symbols);
+            return;
+        }
+
+        Map<Integer, Long> counts = new LinkedHashMap<Integer, Long>();
+        for (int n = 1; n < tree.size(); n++) {
+            Long c = counts.get(tree.method(n));
+            counts.put(tree.method(n), (c == null ? 0 : c) + tree.count(n));
+        }
+        List<Map.Entry<Integer, Long>> sorted = new ArrayList<Map.Entry<Integer, Long>>(counts.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<Integer, Long>>() {
+            @Override
+            public int compare(Map.Entry<Integer, Long> x, Map.Entry<Integer, Long> y) {
+                return Long.compare(y.getValue(), x.getValue());
+            }
+        });
+        double rate = tree.samplingRate();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        for (Map.Entry<Integer, Long> e : sorted) {
+            long estimate = ContextTree.estimate(e.getValue(), rate);
+            long bound = ContextTree.bound(e.getValue(), rate);
+            out.write(symbols.name(e.getKey()) + "," + estimate + "," + Math.max(estimate - bound, e.getValue())
+                    + "," + (estimate + bound));
+            out.newLine();
+        }
+        out.flush();
+    }
+}
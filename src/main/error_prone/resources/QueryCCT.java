@@ -0,0 +1,139 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers path-pattern queries over a calling context tree through a
+ * {@link ContextIndex}. Each query is one line, taken from the arguments
+ * or else read from stdin:
+ *
+ *   pattern [depth<=N]            the matching contexts, most calls first
+ *   callers pattern [depth<=N]    the methods calling the matching contexts
+ *   callees pattern [depth<=N]    the methods they call directly
+ *   below pattern [depth<=N]      all methods called anywhere below them
+ *
+ * e.g. "ZoneInfoProvider.loadZoneData", "callers ImmutableMap.copyOf depth<=3"
+ * or "^TestCase.runBare >> ErrorProneScanner.visit*". Patterns are described
+ * in {@link ContextIndex}; counts are the tree's counts.
+ *
+ * Usage: java QueryCCT tree.cct methods.sym [query...]
+ */
+public class QueryCCT {
+    private static final int LIMIT = 50;
+
+    private final ContextIndex index;
+    private final SymbolTable symbols;
+
+    QueryCCT(ContextIndex index, SymbolTable symbols) {
+        this.index = index;
+        this.symbols = symbols;
+    }
+
+    public static void main(final String args[]) throws IOException {
+        SymbolTable symbols = SymbolTable.load(new File(args[1]));
+        long start = System.nanoTime();
+        QueryCCT q = new QueryCCT(new ContextIndex(MappedContextTree.open(new File(args[0])), symbols), symbols);
+        System.err.println("indexed " + q.index.tree().size() + " contexts in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        if (args.length > 2) {
+            for (int i = 2; i < args.length; i++) {
+                q.run(args[i]);
+            }
+            return;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                q.run(line.trim());
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    void run(String query) {
+        long start = System.nanoTime();
+        String command = query.split("\\s+")[0];
+        boolean aggregate = command.equals("callers") || command.equals("callees") || command.equals("below");
+        String pattern = aggregate ? query.substring(command.length()).trim() : query;
+        int maxDepth = Integer.MAX_VALUE;
+        int d = pattern.lastIndexOf("depth<=");
+        if (d >= 0) {
+            maxDepth = Integer.parseInt(pattern.substring(d + "depth<=".length()).trim());
+            pattern = pattern.substring(0, d).trim();
+        }
+
+        MappedContextTree tree = index.tree();
+        List<Integer> found = index.find(pattern, maxDepth);
+        Map<String, Long> rows = new LinkedHashMap<String, Long>();
+        int below = -1;
+        for (int n : found) {
+            if (command.equals("callers")) {
+                int p = tree.parent(n);
+                add(rows, p == ContextTree.ROOT ? "<root>" : symbols.shortName(tree.method(p)), tree.count(n));
+            } else if (command.equals("callees")) {
+                for (int c = n + 1, e = tree.end(n); c < e; c = tree.end(c)) {
+                    add(rows, symbols.shortName(tree.method(c)), tree.count(c));
+                }
+            } else if (command.equals("below")) {
+                /* found is in preorder: a match inside the last counted subtree is already counted */
+                if (below >= 0 && index.isAncestor(below, n)) {
+                    continue;
+                }
+                below = n;
+                for (int c = n + 1, e = tree.end(n); c < e; c++) {
+                    add(rows, symbols.shortName(tree.method(c)), tree.count(c));
+                }
+            } else {
+                rows.put(path(n), tree.count(n));
+            }
+        }
+        print(query, rows, (System.nanoTime() - start) / 1000);
+    }
+
+    private static void add(Map<String, Long> rows, String key, long n) {
+        Long c = rows.get(key);
+        rows.put(key, (c == null ? 0 : c) + n);
+    }
+
+    private String path(int n) {
+        MappedContextTree tree = index.tree();
+        List<String> names = new ArrayList<String>();
+        for (; n != ContextTree.ROOT; n = tree.parent(n)) {
+            names.add(symbols.shortName(tree.method(n)));
+        }
+        Collections.reverse(names);
+        StringBuilder sb = new StringBuilder();
+        for (String s : names) {
+            sb.append(sb.length() == 0 ? "" : " > ").append(s);
+        }
+        return sb.toString();
+    }
+
+    private static void print(String query, Map<String, Long> rows, long micros) {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<Map.Entry<String, Long>>(rows.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        System.out.println("# " + query);
+        for (Map.Entry<String, Long> e : sorted.subList(0, Math.min(LIMIT, sorted.size()))) {
+            System.out.println(e.getValue() + "\t" + e.getKey());
+        }
+        System.out.println("(" + sorted.size() + " results" + (sorted.size() > LIMIT ? ", first " + LIMIT : "")
+                + ", " + micros / 1000.0 + " ms)");
+    }
+}
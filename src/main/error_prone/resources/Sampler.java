@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-thread bursty sampler: bursts of {@code burst} consecutive calls are
+ * traced, on average one burst in every {@code period} calls (a burst of 1
+ * is plain counter-based sampling). Outside bursts only a shadow stack of
+ * method ids is kept, so that a burst can start from the right calling
+ * context, and a return is traced exactly if its call was.
+ *
+ * The number of calls skipped before each burst is drawn afresh from a
+ * geometric distribution with mean {@code period - burst}, so bursts never
+ * fall into step with a periodic call pattern. With a burst of 1 every call
+ * is then traced independently with probability 1/period, as the
+ * confidence bounds of {@link ContextTree#bound} assume.
+ */
+final class Sampler {
+    static final int SKIP = 0;
+    static final int TRACE = 1;
+    static final int START = 2;
+
+    private final int burst;
+    private final Random random;
+    /* log of the probability that a call outside a burst does not start one */
+    private final double logStay;
+    private int countdown;
+    private int remaining;
+    private int skipped;
+    private int[] stack = new int[64];
+    private boolean[] traced = new boolean[64];
+    private int depth;
+
+    Sampler(int burst, int period) {
+        this(burst, period, ThreadLocalRandom.current());
+    }
+
+    /** A sampler drawing its gaps from {@code random}, e.g. a seeded one for repeatable runs. */
+    Sampler(int burst, int period, Random random) {
+        this.burst = Math.max(1, Math.min(burst, period));
+        this.random = random;
+        this.logStay = Math.log(1 - 1.0 / (period - this.burst + 1));
+        this.countdown = nextCountdown();
+    }
+
+    /**
+     * Records a call and says whether it is traced: SKIP, TRACE inside a
+     * burst, or START for the first call of a burst, in which case the
+     * caller first records {@link #takeSkipped()} and the context
+     * {@link #stack()} up to {@code depth() - 1}.
+     */
+    int call(int method) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+            traced = Arrays.copyOf(traced, depth * 2);
+        }
+        stack[depth] = method;
+        int s;
+        if (remaining > 0) {
+            remaining--;
+            s = TRACE;
+        } else if (--countdown > 0) {
+            skipped++;
+            s = SKIP;
+        } else {
+            countdown = nextCountdown();
+            remaining = burst - 1;
+            s = START;
+        }
+        traced[depth++] = s != SKIP;
+        return s;
+    }
+
+    /** Pops the frame of {@code method} and says whether the return is traced, i.e. its call was. */
+    boolean ret(int method) {
+        for (int d = depth - 1; d >= 0; d--) {
+            if (stack[d] == method) {
+                depth = d;
+                return traced[d];
+            }
+        }
+        return false;
+    }
+
+    /* one more than a geometric number of skipped calls, counted down before the next burst */
+    private int nextCountdown() {
+        if (logStay == Double.NEGATIVE_INFINITY) {
+            return 1;
+        }
+        double u = 1 - random.nextDouble();
+        return 1 + (int) Math.min(Integer.MAX_VALUE - 1, Math.floor(Math.log(u) / logStay));
+    }
+
+    /** The number of calls skipped since the last burst, which is reset. */
+    int takeSkipped() {
+        int n = skipped;
+        skipped = 0;
+        return n;
+    }
+
+    int[] stack() {
+        return stack;
+    }
+
+    int depth() {
+        return depth;
+    }
+}
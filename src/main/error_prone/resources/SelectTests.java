@@ -0,0 +1,184 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the tests affected by a change from the per-test calling context
+ * trees of an earlier run (see {@link TestTrees}). One pass over every
+ * memory-mapped tree builds an inverted index from method id to the set of
+ * tests whose tree reaches it anywhere; it is rolled up to top-level classes
+ * and to owner.name for lookups by changed file or method.
+ *
+ * Changes are whitespace separated tokens, from the arguments or else from
+ * stdin, so `git diff --name-only` output or a line of gitpy.py's
+ * outputwithlabel.txt can be piped in:
+ *
+ *   path/to/Foo.java       tests reaching any method of Foo or its nested
+ *                          classes, and Foo's own tests if it is a test class;
+ *                          every test, with a warning, if Foo is not in the
+ *                          symbol table, e.g. a new class or test class
+ *   pkg.Foo#bar            tests reaching a method bar of pkg.Foo
+ *   any other path         a change the trees cannot see, e.g. a resource or
+ *                          build file: every test is selected
+ *   a word without . or /  ignored, e.g. gitpy's New/Change/Other labels
+ *
+ * The selected tests are printed one per line, in tests.csv order. Trees of
+ * call-site traces record the methods as called, e.g. an interface method
+ * rather than the implementation that ran; select from trees of
+ * Instrument -entry or mode=entry traces to catch every implementation.
+ *
+ * Usage: java SelectTests methods.sym testsdir [change...]
+ */
+public class SelectTests {
+    private final SymbolTable symbols;
+    private final List<String> tests = new ArrayList<String>();
+    /* the tests reaching every method id, and the method ids of every top-level class and owner.name */
+    private final List<BitSet> byMethod = new ArrayList<BitSet>();
+    private final Map<String, List<Integer>> classMethods = new HashMap<String, List<Integer>>();
+    private final Map<String, List<Integer>> nameMethods = new HashMap<String, List<Integer>>();
+    /* the tests of every test class */
+    private final Map<String, BitSet> classTests = new HashMap<String, BitSet>();
+    /* the top-level classes of the symbol table, reached by a test or not */
+    private final Set<String> instrumented = new HashSet<String>();
+
+    public SelectTests(SymbolTable symbols) {
+        this.symbols = symbols;
+        for (int m = 0; m < symbols.size(); m++) {
+            String name = symbols.shortName(m);
+            instrumented.add(topLevel(name.substring(0, Math.max(name.lastIndexOf('.'), 0))));
+        }
+    }
+
+    public static void main(final String args[]) throws IOException {
+        SelectTests select = new SelectTests(SymbolTable.load(new File(args[0])));
+        select.index(new File(args[1]));
+        BitSet selected = new BitSet();
+        if (args.length > 2) {
+            for (int i = 2; i < args.length; i++) {
+                selected.or(select.affected(args[i]));
+            }
+        } else {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = in.readLine()) != null) {
+                for (String change : line.trim().split("\\s+")) {
+                    if (!change.isEmpty()) {
+                        selected.or(select.affected(change));
+                    }
+                }
+            }
+        }
+        for (int t = selected.nextSetBit(0); t >= 0; t = selected.nextSetBit(t + 1)) {
+            System.out.println(select.tests.get(t));
+        }
+        System.err.println("selected " + selected.cardinality() + " of " + select.tests.size() + " tests");
+    }
+
+    /** Indexes the tree of every test in dir/tests.csv. */
+    public void index(File dir) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(new File(dir, "tests.csv")));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String test = line.substring(0, line.indexOf(','));
+                add(test, MappedContextTree.open(new File(dir, TestTrees.fileName(test) + ".cct")));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public void add(String test, MappedContextTree tree) {
+        int t = tests.size();
+        tests.add(test);
+        for (int n = 1; n < tree.size(); n++) {
+            int m = tree.method(n);
+            while (byMethod.size() <= m) {
+                byMethod.add(null);
+            }
+            if (byMethod.get(m) == null) {
+                byMethod.set(m, new BitSet());
+                String name = symbols.shortName(m);
+                list(classMethods, topLevel(name.substring(0, name.lastIndexOf('.')))).add(m);
+                list(nameMethods, name).add(m);
+            }
+            byMethod.get(m).set(t);
+        }
+        String testClass = topLevel(test.substring(0, Math.max(test.lastIndexOf('.'), 0)).replace('.', '/'));
+        BitSet own = classTests.get(testClass);
+        if (own == null) {
+            own = new BitSet();
+            classTests.put(testClass, own);
+        }
+        own.set(t);
+    }
+
+    private static List<Integer> list(Map<String, List<Integer>> index, String key) {
+        List<Integer> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            index.put(key, list);
+        }
+        return list;
+    }
+
+    private static String topLevel(String owner) {
+        int dollar = owner.indexOf('$');
+        return dollar < 0 ? owner : owner.substring(0, dollar);
+    }
+
+    /** The tests affected by one change, see the class comment. */
+    public BitSet affected(String change) {
+        BitSet affected = new BitSet();
+        int hash = change.indexOf('#');
+        if (hash >= 0) {
+            String owner = change.substring(0, hash).replace('.', '/');
+            union(affected, nameMethods.get(owner + "." + change.substring(hash + 1)));
+        } else if (change.endsWith(".java")) {
+            /* e.g. src/main/java/org/joda/time/DateTime.java: the longest suffix naming a known class */
+            String path = change.substring(0, change.length() - ".java".length()).replace('\\', '/');
+            boolean known = false;
+            for (int from = 0; from >= 0 && !known; from = nextSegment(path, from)) {
+                String name = path.substring(from);
+                if (classMethods.containsKey(name) || classTests.containsKey(name)) {
+                    union(affected, classMethods.get(name));
+                    if (classTests.containsKey(name)) {
+                        affected.or(classTests.get(name));
+                    }
+                    known = true;
+                }
+                /* instrumented, but no test reaches it */
+                known |= instrumented.contains(name);
+            }
+            if (!known) {
+                System.err.println("SelectTests: " + change + " is not in the symbol table, selecting every test");
+                affected.set(0, tests.size());
+            }
+        } else if (change.indexOf('/') >= 0 || change.indexOf('.') >= 0) {
+            affected.set(0, tests.size());
+        }
+        return affected;
+    }
+
+    private static int nextSegment(String path, int from) {
+        int slash = path.indexOf('/', from);
+        return slash < 0 ? -1 : slash + 1;
+    }
+
+    private void union(BitSet into, List<Integer> methods) {
+        if (methods != null) {
+            for (int m : methods) {
+                into.or(byMethod.get(m));
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts every call sequence of length 2..k in a single pass over the CALL
+ * events of a trace.
+ *
+ * The counts live in a trie (a {@link ContextTree} whose paths are
+ * sequences rather than calling contexts). Each thread keeps the trie nodes
+ * of its last 0..k-1 calls; a new call extends each of them by one child, so
+ * every occurrence of every n-gram up to k is counted exactly once at O(k)
+ * per event, and sequences never span two threads.
+ *
+ * The output has CallingContextTree's k-length format, one
+ * {@code length,Class.method Class.method ... ,count} line per distinct
+ * sequence, by length, then most frequent first, then by name, so the
+ * output does not depend on the order method ids were handed out in.
+ *
+ * Usage: java SequenceMiner <trace> methods.sym k out.csv
+ */
+public class SequenceMiner implements TraceReader.Visitor {
+    private final int k;
+    private final ContextTree trie = new ContextTree();
+    private final Map<Long, int[]> windows = new HashMap<Long, int[]>();
+    private long lastThread = -1;
+    private int[] last;
+
+    public SequenceMiner(int k) {
+        this.k = k;
+    }
+
+    public static void main(final String args[]) throws IOException {
+        File sym = new File(args[1]);
+        SequenceMiner miner = new SequenceMiner(Integer.parseInt(args[2]));
+        TraceReader.read(args[0], sym, miner);
+        miner.write(new File(args[3]), SymbolTable.load(sym));
+        System.out.println("All sequence till length " + miner.k + " are generated");
+    }
+
+    public ContextTree trie() {
+        return trie;
+    }
+
+    /** Slot d holds the trie node of the thread's last d calls, -1 until there were d calls. */
+    static int[] newWindow(int k) {
+        int[] window = new int[k];
+        Arrays.fill(window, -1);
+        window[0] = ContextTree.ROOT;
+        return window;
+    }
+
+    @Override
+    public void call(long thread, int method) {
+        if (thread != lastThread || last == null) {
+            last = windows.get(thread);
+            if (last == null) {
+                last = newWindow(k);
+                windows.put(thread, last);
+            }
+            lastThread = thread;
+        }
+        advance(trie, last, method);
+    }
+
+    /**
+     * Counts the sequences of length 1..k ending in {@code method}, given the
+     * trie nodes of the previous calls' suffixes, and shifts the window.
+     */
+    static void advance(ContextTree trie, int[] window, int method) {
+        int k = window.length;
+        for (int d = k; d > 0; d--) {
+            if (window[d - 1] < 0) {
+                if (d < k) {
+                    window[d] = -1;
+                }
+                continue;
+            }
+            int n = trie.child(window[d - 1], method);
+            trie.add(n, 1);
+            if (d < k) {
+                window[d] = n;
+            }
+        }
+    }
+
+    @Override
+    public void ret(long thread, int method) {
+    }
+
+    /* sequences do not span the calls a sampled trace skipped */
+    @Override
+    public void burst(long thread, int skipped, int[] context) {
+        windows.put(thread, newWindow(k));
+        last = null;
+    }
+
+    @Override
+    public void test(long thread, String test, int status) {
+    }
+
+    public void write(File out, SymbolTable symbols) throws IOException {
+        write(trie, out, symbols);
+    }
+
+    static void write(final ContextTree trie, File out, SymbolTable symbols) throws IOException {
+        final int[] length = new int[trie.size()];
+        int longest = 0;
+        List<Integer> nodes = new ArrayList<Integer>();
+        for (int n : trie.sortedPreorder()) {
+            if (n != ContextTree.ROOT) {
+                length[n] = length[trie.parent(n)] + 1;
+                longest = Math.max(longest, length[n]);
+                if (length[n] > 1) {
+                    nodes.add(n);
+                }
+            }
+        }
+
+        /* the printed sequence of every node, which also breaks ties of count */
+        final String[] text = new String[trie.size()];
+        int[] path = new int[longest];
+        StringBuilder sb = new StringBuilder();
+        for (int n : nodes) {
+            int len = length[n];
+            for (int i = len - 1, m = n; i >= 0; i--, m = trie.parent(m)) {
+                path[i] = trie.method(m);
+            }
+            sb.setLength(0);
+            for (int i = 0; i < len; i++) {
+                String name = symbols.shortName(path[i]);
+                sb.append(name.substring(name.lastIndexOf('/') + 1)).append(' ');
+            }
+            text[n] = sb.toString();
+        }
+        Collections.sort(nodes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (length[a] != length[b]) {
+                    return length[a] - length[b];
+                }
+                int c = Long.compare(trie.count(b), trie.count(a));
+                return c != 0 ? c : text[a].compareTo(text[b]);
+            }
+        });
+
+        BufferedWriter output = new BufferedWriter(new FileWriter(out), 1 << 16);
+        for (int n : nodes) {
+            output.write(length[n] + "," + text[n] + "," + trie.count(n));
+            output.newLine();
+        }
+        output.close();
+    }
+}
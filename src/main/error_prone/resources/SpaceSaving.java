@@ -0,0 +1,102 @@
+/**
+ * Space-Saving top-k summary: a fixed number of monitored keys in a min-heap
+ * by count. An unmonitored key replaces the minimum and inherits its count
+ * as error, so every monitored count overestimates by at most its error,
+ * and no key with a true count above total / capacity is ever missed.
+ */
+final class SpaceSaving {
+    private final long[] key;
+    private final long[] count;
+    private final long[] error;
+    private final int[][] item;
+    private final int[] heap;
+    private final int[] pos;
+    private final LongIntHashMap slots;
+    private int size;
+
+    SpaceSaving(int capacity) {
+        key = new long[capacity];
+        count = new long[capacity];
+        error = new long[capacity];
+        item = new int[capacity][];
+        heap = new int[capacity];
+        pos = new int[capacity];
+        slots = new LongIntHashMap(capacity, -1);
+    }
+
+    /**
+     * Counts one occurrence of {@code k}; {@code value} describes the key for
+     * reporting and is only copied when the key becomes monitored.
+     */
+    void add(long k, int[] value, int from, int len) {
+        int s = slots.get(k);
+        if (s < 0) {
+            if (size < key.length) {
+                s = size;
+                heap[size] = s;
+                pos[s] = size;
+                size++;
+            } else {
+                s = heap[0];
+                slots.remove(key[s]);
+                error[s] = count[s];
+            }
+            key[s] = k;
+            item[s] = copy(value, from, len);
+            slots.put(k, s);
+        }
+        count[s]++;
+        siftDown(pos[s]);
+    }
+
+    int capacity() {
+        return key.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long count(int slot) {
+        return count[slot];
+    }
+
+    long error(int slot) {
+        return error[slot];
+    }
+
+    long key(int slot) {
+        return key[slot];
+    }
+
+    int[] item(int slot) {
+        return item[slot];
+    }
+
+    private static int[] copy(int[] a, int from, int len) {
+        int[] c = new int[len];
+        for (int i = 0; i < len; i++) {
+            c[i] = a[(from + i) % a.length];
+        }
+        return c;
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= size) {
+                return;
+            }
+            int m = l + 1 < size && count[heap[l + 1]] < count[heap[l]] ? l + 1 : l;
+            if (count[heap[m]] >= count[heap[i]]) {
+                return;
+            }
+            int t = heap[i];
+            heap[i] = heap[m];
+            heap[m] = t;
+            pos[heap[i]] = i;
+            pos[heap[m]] = m;
+            i = m;
+        }
+    }
+}
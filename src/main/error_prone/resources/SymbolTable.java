@@ -0,0 +1,151 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense int ids for the owner.name+desc keys of instrumented call sites.
+ *
+ * The table is stored one key per line, the line number being the id. It is
+ * append-only: {@link #open} loads the ids handed out by earlier runs, and
+ * every new key is appended as soon as it gets an id, under an exclusive
+ * lock on the file that first reads the keys other processes appended in
+ * the meantime. So every class instrumented against the same file shares one
+ * id space, and JVMs that use the same file at the same time, e.g. forked
+ * test runs under the agent, only wait for each other while appending.
+ */
+public class SymbolTable {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private final RandomAccessFile file;
+    /* the bytes of the file read so far */
+    private long length;
+
+    private SymbolTable(RandomAccessFile file) {
+        this.file = file;
+    }
+
+    /** Opens {@code f} for update until {@link #close}; new keys are appended as they come. */
+    public static SymbolTable open(File f) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(f, "rw");
+        SymbolTable table = new SymbolTable(file);
+        FileLock lock = file.getChannel().lock();
+        try {
+            table.readFrom(file.getChannel());
+        } finally {
+            lock.release();
+        }
+        return table;
+    }
+
+    /** Loads {@code f} read-only, for decoding ids in traces and reports. */
+    public static SymbolTable load(File f) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        try {
+            SymbolTable table = new SymbolTable(null);
+            /* shared, so no key is read half-appended */
+            FileLock lock = file.getChannel().lock(0, Long.MAX_VALUE, true);
+            try {
+                table.readFrom(file.getChannel());
+            } finally {
+                lock.release();
+            }
+            return table;
+        } finally {
+            file.close();
+        }
+    }
+
+    /* reads the keys from the end of the last read to the end of the file */
+    private void readFrom(FileChannel channel) throws IOException {
+        channel.position(length);
+        BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            ids.put(line, names.size());
+            names.add(line);
+        }
+        length = channel.position();
+    }
+
+    public int id(String method) {
+        Integer id = ids.get(method);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            id = ids.get(method);
+            if (id != null) {
+                return id;
+            }
+            if (file != null) {
+                return append(method);
+            }
+            id = names.size();
+            names.add(method);
+            ids.put(method, id);
+            return id;
+        }
+    }
+
+    /* gives method the next id of the file, unless another process just did */
+    private int append(String method) {
+        try {
+            FileChannel channel = file.getChannel();
+            FileLock lock = channel.lock();
+            try {
+                readFrom(channel);
+                Integer id = ids.get(method);
+                if (id != null) {
+                    return id;
+                }
+                id = names.size();
+                byte[] line = (method + "\n").getBytes(StandardCharsets.UTF_8);
+                channel.write(ByteBuffer.wrap(line), length);
+                length += line.length;
+                names.add(method);
+                ids.put(method, id);
+                return id;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not append to the symbol table", e);
+        }
+    }
+
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    /** The key without its descriptor, as printed in the text traces. */
+    public String shortName(int id) {
+        String name = names.get(id);
+        int paren = name.indexOf('(');
+        return paren < 0 ? name : name.substring(0, paren);
+    }
+
+    public int size() {
+        synchronized (names) {
+            return names.size();
+        }
+    }
+
+    /** Closes the file; the keys are already in it. */
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.internal.TextListener;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Tells {@link TraceRuntime} where every test method starts and finishes,
+ * so traces and trees can be split per test and joined with the test's
+ * PASS/FAIL status.
+ *
+ * Usage: java -cp ...:junit.jar TestListener TestClass...
+ * (runs the classes with JUnitCore, printing the usual JUnit report)
+ */
+public class TestListener extends RunListener {
+    private final Set<Description> failed = Collections.synchronizedSet(new HashSet<Description>());
+    private final Set<Description> skipped = Collections.synchronizedSet(new HashSet<Description>());
+
+    public static void main(final String args[]) throws ClassNotFoundException {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (String name : args) {
+            classes.add(Class.forName(name));
+        }
+        JUnitCore core = new JUnitCore();
+        core.addListener(new TextListener(System.out));
+        core.addListener(new TestListener());
+        Result r = core.run(classes.toArray(new Class<?>[classes.size()]));
+        System.exit(r.wasSuccessful() ? 0 : 1);
+    }
+
+    static String name(Description d) {
+        return d.getClassName() + "." + d.getMethodName();
+    }
+
+    @Override
+    public void testStarted(Description d) {
+        TraceRuntime.testStarted(name(d));
+    }
+
+    @Override
+    public void testFailure(Failure f) {
+        failed.add(f.getDescription());
+    }
+
+    @Override
+    public void testAssumptionFailure(Failure f) {
+        skipped.add(f.getDescription());
+    }
+
+    @Override
+    public void testFinished(Description d) {
+        int status = failed.remove(d) ? TraceRuntime.TEST_FAILED
+                : skipped.remove(d) ? TraceRuntime.TEST_SKIPPED : TraceRuntime.TEST_PASSED;
+        TraceRuntime.testFinished(name(d), status);
+    }
+}
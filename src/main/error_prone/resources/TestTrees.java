@@ -0,0 +1,71 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes the calling context tree of every test to dir/<test>.cct on a
+ * pool thread as soon as the test finishes, so the suite keeps running
+ * while finished tests are processed. {@link #close} waits for them and
+ * writes dir/tests.csv, one {@code test,status,contexts,calls} line per
+ * test in the order they finished, with statsPassFail.csv's PASS/FAIL
+ * status (SKIP for a failed assumption).
+ */
+final class TestTrees {
+    private final File dir;
+    private final ExecutorService pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "trace-tests");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    private final List<Future<String>> rows = new ArrayList<Future<String>>();
+
+    TestTrees(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+    }
+
+    synchronized void submit(final String test, final String status, final ContextTree tree) {
+        rows.add(pool.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                tree.write(new File(dir, fileName(test) + ".cct"));
+                return test + "," + status + "," + (tree.size() - 1) + "," + tree.calls();
+            }
+        }));
+    }
+
+    /** A test name as a file name: characters other than letters, digits and ._$- become '_'. */
+    static String fileName(String test) {
+        return test.replaceAll("[^A-Za-z0-9._$-]", "_");
+    }
+
+    synchronized void close() throws IOException {
+        pool.shutdown();
+        BufferedWriter out = new BufferedWriter(new FileWriter(new File(dir, "tests.csv")));
+        try {
+            for (Future<String> row : rows) {
+                out.write(row.get());
+                out.newLine();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException("could not write a test tree", e.getCause());
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate, fixed-memory counterpart of {@link SequenceMiner}: keeps only
+ * the most frequent call sequences of each length instead of a trie of all
+ * of them, so memory no longer grows with the number of distinct sequences.
+ *
+ * Every sequence is reduced to a 64-bit hash. Per length, a
+ * {@link SpaceSaving} summary of {@code capacity} entries tracks the heavy
+ * hitters and a {@link CountMinSketch} bounds their counts from above; the
+ * reported count is the smaller of the two upper bounds and the low column
+ * is Space-Saving's guaranteed lower bound, so the true count lies between
+ * the two. With k = 1 it counts methods in {@link MethodFrequency}'s
+ * format plus the low column: a {@code methods,count,low} header, then
+ * owner.name rows with the bounds of overloads summed.
+ *
+ * Usage: java TopKMiner [-capacity m] [-eps e] [-delta d] <trace> methods.sym k top out.csv
+ */
+public class TopKMiner implements TraceReader.Visitor {
+    private static final long SEED = 0xCBF29CE484222325L;
+    private static final long PRIME = 0x100000001B3L;
+
+    private final int k;
+    private final int shortest;
+    private final SpaceSaving[] summaries;
+    private final CountMinSketch[] sketches;
+    private final Map<Long, Window> windows = new HashMap<Long, Window>();
+    private long lastThread = -1;
+    private Window last;
+
+    public TopKMiner(int k, int capacity, double epsilon, double delta) {
+        this.k = k;
+        this.shortest = k == 1 ? 1 : 2;
+        summaries = new SpaceSaving[k];
+        sketches = new CountMinSketch[k];
+        for (int d = shortest; d <= k; d++) {
+            summaries[d - 1] = new SpaceSaving(capacity);
+            sketches[d - 1] = new CountMinSketch(epsilon, delta);
+        }
+    }
+
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        int capacity = 0;
+        double epsilon = 1e-4;
+        double delta = 0.01;
+        for (; args[a].startsWith("-"); a += 2) {
+            if (args[a].equals("-capacity")) {
+                capacity = Integer.parseInt(args[a + 1]);
+            } else if (args[a].equals("-eps")) {
+                epsilon = Double.parseDouble(args[a + 1]);
+            } else if (args[a].equals("-delta")) {
+                delta = Double.parseDouble(args[a + 1]);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        File sym = new File(args[a + 1]);
+        int k = Integer.parseInt(args[a + 2]);
+        int top = Integer.parseInt(args[a + 3]);
+        TopKMiner miner = new TopKMiner(k, capacity > 0 ? capacity : 10 * top, epsilon, delta);
+        TraceReader.read(args[a], sym, miner);
+        miner.write(top, new File(args[a + 4]), SymbolTable.load(sym));
+        miner.report(System.out);
+    }
+
+    @Override
+    public void call(long thread, int method) {
+        if (thread != lastThread || last == null) {
+            last = windows.get(thread);
+            if (last == null) {
+                last = new Window(k);
+                windows.put(thread, last);
+            }
+            lastThread = thread;
+        }
+        Window w = last;
+        w.calls[w.next] = method;
+        w.next = (w.next + 1) % k;
+        w.filled = Math.min(w.filled + 1, k);
+
+        /* hash the sequences ending here from the newest call backwards, one step per length */
+        long h = SEED;
+        for (int d = 1; d <= w.filled; d++) {
+            int from = (w.next - d + k) % k;
+            h = (h ^ w.calls[from]) * PRIME;
+            if (d >= shortest) {
+                long key = h ^ (h >>> 31);
+                summaries[d - 1].add(key, w.calls, from, d);
+                sketches[d - 1].add(key, 1);
+            }
+        }
+    }
+
+    @Override
+    public void ret(long thread, int method) {
+    }
+
+    /* sequences do not span the calls a sampled trace skipped */
+    @Override
+    public void burst(long thread, int skipped, int[] context) {
+        windows.remove(thread);
+        last = null;
+    }
+
+    @Override
+    public void test(long thread, String test, int status) {
+    }
+
+    /** Writes the {@code top} most frequent sequences of each length, most frequent first. */
+    public void write(int top, File out, SymbolTable symbols) throws IOException {
+        BufferedWriter output = new BufferedWriter(new FileWriter(out), 1 << 16);
+        if (k == 1) {
+            writeMethods(top, output, symbols);
+            output.close();
+            return;
+        }
+        for (int d = shortest; d <= k; d++) {
+            final SpaceSaving s = summaries[d - 1];
+            final CountMinSketch cms = sketches[d - 1];
+            List<Integer> slots = new ArrayList<Integer>();
+            for (int i = 0; i < s.size(); i++) {
+                slots.add(i);
+            }
+            Collections.sort(slots, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(estimate(s, cms, b), estimate(s, cms, a));
+                }
+            });
+            for (int slot : slots.subList(0, Math.min(top, slots.size()))) {
+                output.write(d + ",");
+                for (int m : s.item(slot)) {
+                    String name = symbols.shortName(m);
+                    output.write(name.substring(name.lastIndexOf('/') + 1) + " ");
+                }
+                output.write("," + estimate(s, cms, slot) + "," + (s.count(slot) - s.error(slot)));
+                output.newLine();
+            }
+        }
+        output.close();
+    }
+
+    /* methods,count,low rows, overloads summed before the top ones are picked */
+    private void writeMethods(int top, BufferedWriter output, SymbolTable symbols) throws IOException {
+        SpaceSaving s = summaries[0];
+        CountMinSketch cms = sketches[0];
+        final Map<String, long[]> byName = new HashMap<String, long[]>();
+        for (int slot = 0; slot < s.size(); slot++) {
+            String name = symbols.shortName(s.item(slot)[0]);
+            long[] bounds = byName.get(name);
+            if (bounds == null) {
+                bounds = new long[2];
+                byName.put(name, bounds);
+            }
+            bounds[0] += estimate(s, cms, slot);
+            bounds[1] += s.count(slot) - s.error(slot);
+        }
+        List<String> names = new ArrayList<String>(byName.keySet());
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int c = Long.compare(byName.get(b)[0], byName.get(a)[0]);
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        output.write("methods,count,low");
+        output.newLine();
+        for (String name : names.subList(0, Math.min(top, names.size()))) {
+            output.write(name + "," + byName.get(name)[0] + "," + byName.get(name)[1]);
+            output.newLine();
+        }
+    }
+
+    private static long estimate(SpaceSaving s, CountMinSketch cms, int slot) {
+        return Math.min(s.count(slot), cms.estimate(s.key(slot)));
+    }
+
+    /** Prints the per-length error bounds that hold for every reported count. */
+    public void report(PrintStream out) {
+        for (int d = shortest; d <= k; d++) {
+            CountMinSketch cms = sketches[d - 1];
+            long n = cms.total();
+            long spaceSaving = n / summaries[d - 1].capacity();
+            out.println("length " + d + ": " + n + " sequences, counts overestimate by at most "
+                    + spaceSaving + ", and by at most " + cms.errorBound() + " with high probability");
+        }
+    }
+
+    /** The last k calls of one thread, as a circular buffer. */
+    static final class Window {
+        final int[] calls;
+        int next;
+        int filled;
+
+        Window(int k) {
+            calls = new int[k];
+        }
+    }
+}
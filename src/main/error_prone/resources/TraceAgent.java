@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Load-time variant of {@link Instrument}: rewrites classes with
+ * {@link TraceCallsClassAdapter} as they are loaded, so test runs can be
+ * traced in place without an instrumented copy of the classes.
+ *
+ * Usage: java -javaagent:trace-agent.jar=include=org/joda/time/**;exclude=...;symbols=methods.sym;mode=entry
+ *            ;callinclude=...;callexclude=...;internal
+ *
+ * include and exclude take comma separated {@link Glob}s over internal class
+ * names; with no include everything outside the JDK is traced. Method ids go
+ * to the symbols file, by default the trace file name plus ".sym", as they
+ * are handed out, so JVMs tracing into the same file at once (e.g. forked
+ * test runs) share one id space without waiting for each other. mode=entry
+ * instruments method entries and exits instead of call sites, as
+ * Instrument -entry does. callinclude, callexclude and internal filter the
+ * traced calls like Instrument's -include, -exclude and -internal, where
+ * internal means classes the agent instruments.
+ */
+public class TraceAgent implements ClassFileTransformer {
+    private static final List<Pattern> ALWAYS_EXCLUDED = Glob.compileAll(
+            "java/**,javax/**,jdk/**,sun/**,com/sun/**,org/objectweb/asm/**");
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+    private final SymbolTable symbols;
+    private final boolean entry;
+    private final CallFilter filter;
+    private final CodeSource self = TraceAgent.class.getProtectionDomain().getCodeSource();
+    private final Map<ClassLoader, ClassHierarchy> hierarchies =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, ClassHierarchy>());
+
+    TraceAgent(List<Pattern> includes, List<Pattern> excludes, SymbolTable symbols, boolean entry,
+            String callIncludes, String callExcludes, boolean internal) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.symbols = symbols;
+        this.entry = entry;
+        this.filter = new CallFilter(callIncludes, callExcludes, internal) {
+            @Override
+            boolean isInternal(String owner) {
+                return TraceAgent.this.accepts(owner);
+            }
+        };
+    }
+
+    public static void premain(String args, Instrumentation inst) throws IOException {
+        String include = null;
+        String exclude = null;
+        boolean entry = false;
+        String callInclude = null;
+        String callExclude = null;
+        boolean internal = false;
+        String sym = System.getProperty("trace.file", "trace.bin") + ".sym";
+        if (args != null) {
+            for (String opt : args.split(";")) {
+                int eq = opt.indexOf('=');
+                String key = eq < 0 ? opt : opt.substring(0, eq);
+                String value = eq < 0 ? "" : opt.substring(eq + 1);
+                if (key.equals("include")) {
+                    include = value;
+                } else if (key.equals("exclude")) {
+                    exclude = value;
+                } else if (key.equals("symbols")) {
+                    sym = value;
+                } else if (key.equals("mode")) {
+                    if (!value.equals("entry") && !value.equals("calls")) {
+                        throw new IllegalArgumentException("trace agent: unknown mode " + value);
+                    }
+                    entry = value.equals("entry");
+                } else if (key.equals("callinclude")) {
+                    callInclude = value;
+                } else if (key.equals("callexclude")) {
+                    callExclude = value;
+                } else if (key.equals("internal")) {
+                    internal = value.isEmpty() || Boolean.parseBoolean(value);
+                } else {
+                    throw new IllegalArgumentException("trace agent: unknown option " + key);
+                }
+            }
+        }
+
+        final SymbolTable symbols = SymbolTable.open(new File(sym));
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    symbols.close();
+                } catch (IOException e) {
+                    System.err.println("trace agent: could not close symbols: " + e);
+                }
+            }
+        }, "trace-symbols"));
+        inst.addTransformer(new TraceAgent(Glob.compileAll(include), Glob.compileAll(exclude),
+                symbols, entry, callInclude, callExclude, internal));
+    }
+
+    boolean accepts(String className) {
+        if (Glob.matchesAny(ALWAYS_EXCLUDED, className) || Glob.matchesAny(excludes, className)) {
+            return false;
+        }
+        return includes.isEmpty() || Glob.matchesAny(includes, className);
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> redefined,
+            ProtectionDomain domain, byte[] bytes) {
+        /* classes on the boot class path cannot see TraceRuntime */
+        if (loader == null || className == null || redefined != null || !accepts(className)) {
+            return null;
+        }
+        if (domain != null && self != null && domain.getCodeSource() != null
+                && self.getLocation().equals(domain.getCodeSource().getLocation())) {
+            return null;
+        }
+        try {
+            return Instrument.instrument(new ClassReader(bytes), hierarchy(loader).newWriter(), symbols, entry,
+                    filter);
+        } catch (Throwable t) {
+            System.err.println("trace agent: leaving " + className + " unchanged: " + t);
+            return null;
+        }
+    }
+
+    private ClassHierarchy hierarchy(ClassLoader loader) {
+        synchronized (hierarchies) {
+            ClassHierarchy h = hierarchies.get(loader);
+            if (h == null) {
+                h = new ClassHierarchy(loader);
+                hierarchies.put(loader, h);
+            }
+            return h;
+        }
+    }
+}
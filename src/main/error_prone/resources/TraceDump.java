@@ -0,0 +1,86 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Prints a binary trace as the CALL/RETURN text lines the analysis scripts
+ * expect, each followed by "@thread" so interleaved threads can be told
+ * apart. A sampled trace also has "BURST skipped context..." lines where
+ * tracing resumes, and tests are marked by "TEST START|PASS|FAIL|SKIP name"
+ * lines. Methods are printed as owner.name unless -desc asks for the full
+ * key or -ids for the raw method ids.
+ *
+ * Usage: java TraceDump [-desc|-ids] trace.bin [methods.sym]
+ */
+public class TraceDump {
+    public static void main(final String args[]) throws IOException {
+        int a = 0;
+        final String format = args[a].startsWith("-") ? args[a++] : "";
+        File trace = new File(args[a++]);
+        final SymbolTable symbols = format.equals("-ids") ? null
+                : SymbolTable.load(new File(a < args.length ? args[a] : "methods.sym"));
+        final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+
+        TraceReader.read(trace, new TraceReader.Visitor() {
+            @Override
+            public void call(long thread, int method) {
+                line("CALL ", method, thread);
+            }
+
+            @Override
+            public void ret(long thread, int method) {
+                line("RETURN ", method, thread);
+            }
+
+            @Override
+            public void burst(long thread, int skipped, int[] context) {
+                try {
+                    out.write("BURST " + skipped);
+                    for (int m : context) {
+                        out.write(' ');
+                        name(m);
+                    }
+                    out.write(" @");
+                    out.write(Long.toString(thread));
+                    out.newLine();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void test(long thread, String test, int status) {
+                try {
+                    out.write("TEST " + TraceRuntime.TEST_STATUS[status] + " " + test + " @" + thread);
+                    out.newLine();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            private void name(int method) throws IOException {
+                if (symbols == null) {
+                    out.write(Integer.toString(method));
+                } else if (format.equals("-desc")) {
+                    out.write(symbols.name(method));
+                } else {
+                    out.write(symbols.shortName(method));
+                }
+            }
+
+            private void line(String kind, int method, long thread) {
+                try {
+                    out.write(kind);
+                    name(method);
+                    out.write(" @");
+                    out.write(Long.toString(thread));
+                    out.newLine();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        out.flush();
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lossless grammar compression of the CALL/RETURN sequence of every thread
+ * by loop folding. Each thread's sequence is kept as (symbol, repetitions)
+ * elements: a symbol equal to the last element only bumps its count, and
+ * whenever the last L elements (L up to {@link #MAX_BODY}) repeat the L
+ * before them they become a rule, used with a repetition count, so loops
+ * with bodies of any length and recursion collapse into rules like
+ * {@code R3 = c12 R1^4 r12} used as {@code R3^1000}. Further iterations of
+ * the loop only increment the count.
+ *
+ * Text form, also read back by {@link #read}: one line per rule
+ * ({@code R<n> = ...}) and per thread ({@code T<thread> = ...}); c<id> and
+ * r<id> are the CALL and RETURN of method id, '|' a gap of a sampled trace,
+ * and ^n a repetition. Test marks are not kept. Rules only refer to rules
+ * with smaller numbers. See {@link GrammarMiner} for mining k-sequences on
+ * the compressed form.
+ *
+ * Usage: java TraceGrammar <trace> methods.sym out.grammar
+ */
+public class TraceGrammar implements TraceReader.Visitor {
+    static final int MAX_BODY = 32;
+    /* symbols: CALL/RETURN records as written by TraceRuntime, rules and gaps below zero */
+    static final int GAP = -1;
+
+    final List<int[]> ruleSymbols = new ArrayList<int[]>();
+    final List<long[]> ruleReps = new ArrayList<long[]>();
+    final Map<Long, Sequence> threads = new LinkedHashMap<Long, Sequence>();
+    private final Map<String, Integer> rulesByBody = new HashMap<String, Integer>();
+    private long events;
+    private long lastThread = -1;
+    private Sequence last;
+
+    public static void main(final String args[]) throws IOException {
+        TraceGrammar g = new TraceGrammar();
+        TraceReader.read(args[0], new File(args[1]), g);
+        g.write(new File(args[2]));
+        long symbols = 0;
+        for (Sequence s : g.threads.values()) {
+            symbols += s.size;
+        }
+        for (int[] body : g.ruleSymbols) {
+            symbols += body.length;
+        }
+        System.out.println(g.events + " events compressed to " + symbols + " symbols in " + g.ruleSymbols.size()
+                + " rules and " + g.threads.size() + " threads");
+    }
+
+    static boolean isRule(int symbol) {
+        return symbol < GAP;
+    }
+
+    static int rule(int symbol) {
+        return -2 - symbol;
+    }
+
+    static int ruleSymbol(int rule) {
+        return -2 - rule;
+    }
+
+    private Sequence sequence(long thread) {
+        if (thread != lastThread || last == null) {
+            last = threads.get(thread);
+            if (last == null) {
+                last = new Sequence();
+                threads.put(thread, last);
+            }
+            lastThread = thread;
+        }
+        return last;
+    }
+
+    @Override
+    public void call(long thread, int method) {
+        events++;
+        sequence(thread).push(method << TraceRuntime.KIND_BITS | TraceRuntime.CALL, 1);
+    }
+
+    @Override
+    public void ret(long thread, int method) {
+        events++;
+        sequence(thread).push(method << TraceRuntime.KIND_BITS | TraceRuntime.RETURN, 1);
+    }
+
+    @Override
+    public void burst(long thread, int skipped, int[] context) {
+        sequence(thread).push(GAP, 1);
+    }
+
+    @Override
+    public void test(long thread, String test, int status) {
+    }
+
+    /* the rule for a body, created the first time it is seen */
+    private int intern(int[] symbols, long[] reps, int from, int len) {
+        StringBuilder key = new StringBuilder();
+        for (int i = from; i < from + len; i++) {
+            key.append(symbols[i]).append('^').append(reps[i]).append(' ');
+        }
+        Integer r = rulesByBody.get(key.toString());
+        if (r == null) {
+            r = ruleSymbols.size();
+            ruleSymbols.add(Arrays.copyOfRange(symbols, from, from + len));
+            ruleReps.add(Arrays.copyOfRange(reps, from, from + len));
+            rulesByBody.put(key.toString(), r);
+        }
+        return r;
+    }
+
+    /** One thread's sequence of (symbol, repetitions) elements. */
+    final class Sequence {
+        int[] symbols = new int[64];
+        long[] reps = new long[64];
+        int size;
+
+        void push(int symbol, long rep) {
+            if (size > 0 && symbols[size - 1] == symbol) {
+                reps[size - 1] += rep;
+            } else {
+                if (size == symbols.length) {
+                    symbols = Arrays.copyOf(symbols, size * 2);
+                    reps = Arrays.copyOf(reps, size * 2);
+                }
+                symbols[size] = symbol;
+                reps[size] = rep;
+                size++;
+            }
+            fold();
+        }
+
+        private void fold() {
+            for (int len = 1; len <= MAX_BODY && len < size; len++) {
+                /* another iteration of the rule just before the last len elements */
+                int before = symbols[size - len - 1];
+                if (isRule(before)) {
+                    int r = rule(before);
+                    if (ruleSymbols.get(r).length == len && sameAsRule(r, size - len)) {
+                        size -= len;
+                        reps[size - 1]++;
+                        fold();
+                        return;
+                    }
+                }
+                /* the last len elements repeat the len before them */
+                if (len >= 2 && 2 * len <= size && repeats(size - 2 * len, size - len, len)) {
+                    int r = intern(symbols, reps, size - len, len);
+                    size -= 2 * len;
+                    push(ruleSymbol(r), 2);
+                    return;
+                }
+            }
+        }
+
+        private boolean sameAsRule(int r, int from) {
+            int[] s = ruleSymbols.get(r);
+            long[] n = ruleReps.get(r);
+            for (int i = 0; i < s.length; i++) {
+                if (symbols[from + i] != s[i] || reps[from + i] != n[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean repeats(int a, int b, int len) {
+            for (int i = len - 1; i >= 0; i--) {
+                if (symbols[a + i] != symbols[b + i] || reps[a + i] != reps[b + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public void write(File f) throws IOException {
+        BufferedWriter out = new BufferedWriter(new FileWriter(f), 1 << 16);
+        try {
+            for (int r = 0; r < ruleSymbols.size(); r++) {
+                out.write("R" + r + " =");
+                writeBody(out, ruleSymbols.get(r), ruleReps.get(r), ruleSymbols.get(r).length);
+            }
+            for (Map.Entry<Long, Sequence> e : threads.entrySet()) {
+                out.write("T" + e.getKey() + " =");
+                writeBody(out, e.getValue().symbols, e.getValue().reps, e.getValue().size);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeBody(BufferedWriter out, int[] symbols, long[] reps, int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            int s = symbols[i];
+            out.write(' ');
+            if (s == GAP) {
+                out.write('|');
+            } else if (isRule(s)) {
+                out.write("R" + rule(s));
+            } else {
+                out.write(((s & TraceRuntime.KIND_MASK) == TraceRuntime.CALL ? "c" : "r")
+                        + (s >>> TraceRuntime.KIND_BITS));
+            }
+            if (reps[i] != 1) {
+                out.write("^" + reps[i]);
+            }
+        }
+        out.newLine();
+    }
+
+    public static TraceGrammar read(File f) throws IOException {
+        TraceGrammar g = new TraceGrammar();
+        BufferedReader in = new BufferedReader(new FileReader(f), 1 << 16);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int eq = line.indexOf(" =");
+                if (eq < 0) {
+                    continue;
+                }
+                String[] tokens = line.substring(eq + 2).trim().split(" ");
+                int n = tokens[0].isEmpty() ? 0 : tokens.length;
+                int[] symbols = new int[n];
+                long[] reps = new long[n];
+                for (int i = 0; i < n; i++) {
+                    String t = tokens[i];
+                    int hat = t.indexOf('^');
+                    reps[i] = hat < 0 ? 1 : Long.parseLong(t.substring(hat + 1));
+                    t = hat < 0 ? t : t.substring(0, hat);
+                    if (t.equals("|")) {
+                        symbols[i] = GAP;
+                    } else if (t.charAt(0) == 'R') {
+                        symbols[i] = ruleSymbol(Integer.parseInt(t.substring(1)));
+                    } else {
+                        symbols[i] = Integer.parseInt(t.substring(1)) << TraceRuntime.KIND_BITS
+                                | (t.charAt(0) == 'c' ? TraceRuntime.CALL : TraceRuntime.RETURN);
+                    }
+                }
+                if (line.startsWith("R")) {
+                    g.ruleSymbols.add(symbols);
+                    g.ruleReps.add(reps);
+                } else {
+                    Sequence s = g.new Sequence();
+                    s.symbols = symbols;
+                    s.reps = reps;
+                    s.size = n;
+                    g.threads.put(Long.parseLong(line.substring(1, eq)), s);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return g;
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a binary trace written by {@link TraceRuntime} through read-only
+ * memory-mapped windows and hands every record to a {@link Visitor}. Text
+ * traces (CALL/RETURN/BURST/TEST lines with an optional "@thread" field, as
+ * printed by {@link TraceDump}) are accepted too.
+ *
+ * Both can also be read in ranges of the file, for parallel readers: a
+ * binary trace by its chunks (see {@link #chunks}), a text trace by the
+ * lines that start in a range of bytes.
+ */
+public class TraceReader {
+    private static final long WINDOW_BYTES = 256L << 20;
+    private static final byte[] CALL_PREFIX = ascii("CALL ");
+    private static final byte[] RETURN_PREFIX = ascii("RETURN ");
+    private static final byte[] BURST_PREFIX = ascii("BURST ");
+    private static final byte[] TEST_PREFIX = ascii("TEST ");
+
+    public interface Visitor {
+        void call(long thread, int method);
+
+        void ret(long thread, int method);
+
+        /**
+         * A sampled trace resumes after {@code skipped} untraced calls, in
+         * the calling context {@code context} (outermost method first).
+         */
+        void burst(long thread, int skipped, int[] context);
+
+        /** A test starts or finishes on {@code thread}, with a TraceRuntime.TEST_* status. */
+        void test(long thread, String test, int status);
+    }
+
+    /**
+     * Reads a binary or text trace; "-" reads text from stdin. Method names of
+     * a text trace are interned into the symbol table {@code symbols}.
+     */
+    public static void read(String trace, File symbols, Visitor v) throws IOException {
+        if (isBinary(trace)) {
+            read(new File(trace), v);
+            return;
+        }
+        SymbolTable table = SymbolTable.open(symbols);
+        try {
+            Reader r = trace.equals("-") ? new InputStreamReader(System.in) : new FileReader(trace);
+            readText(new BufferedReader(r, 1 << 16), table, v);
+        } finally {
+            table.close();
+        }
+    }
+
+    static boolean isBinary(String file) throws IOException {
+        if (file.equals("-") || new File(file).length() < TraceRuntime.HEADER_BYTES) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == TraceRuntime.MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    static void readText(BufferedReader in, SymbolTable symbols, Visitor v) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            readLine(line, symbols, v);
+        }
+        in.close();
+    }
+
+    private static void readLine(String line, SymbolTable symbols, Visitor v) {
+        boolean call = line.startsWith("CALL ");
+        boolean burst = line.startsWith("BURST ");
+        boolean test = line.startsWith("TEST ");
+        if (!call && !burst && !test && !line.startsWith("RETURN ")) {
+            return;
+        }
+        int from = call || test ? 5 : burst ? 6 : 7;
+        int at = line.indexOf(" @", from);
+        long thread = at < 0 ? 0 : Long.parseLong(line.substring(at + 2).trim());
+        if (burst) {
+            String[] f = line.substring(from, at < 0 ? line.length() : at).trim().split(" ");
+            int[] context = new int[f.length - 1];
+            for (int i = 1; i < f.length; i++) {
+                context[i - 1] = symbols.id(f[i]);
+            }
+            v.burst(thread, Integer.parseInt(f[0]), context);
+            return;
+        }
+        if (test) {
+            String[] f = line.substring(from, at < 0 ? line.length() : at).trim().split(" ", 2);
+            v.test(thread, f[1], Arrays.asList(TraceRuntime.TEST_STATUS).indexOf(f[0]));
+            return;
+        }
+        int method = symbols.id(line.substring(from, at < 0 ? line.length() : at).trim());
+        if (call) {
+            v.call(thread, method);
+        } else {
+            v.ret(thread, method);
+        }
+    }
+
+    /**
+     * Reads the lines of a text trace that start in [from, to) straight from
+     * read-only memory-mapped windows. The method names of CALL and RETURN
+     * lines are looked up by their bytes among the names this call has seen,
+     * so only a new name is decoded and interned into {@code symbols}; other
+     * lines are decoded and parsed one by one.
+     */
+    static void readText(File trace, long from, long to, SymbolTable symbols, Visitor v) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(trace, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            Names names = new Names(symbols);
+            /* a line that starts before from belongs to the previous range */
+            boolean partial = from > 0;
+            long pos = partial ? from - 1 : from;
+            long windowStart = pos;
+            MappedByteBuffer buf = null;
+            while (pos < Math.min(size, to)) {
+                if (buf == null || pos - windowStart >= buf.limit()) {
+                    windowStart = pos;
+                    buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size - pos, WINDOW_BYTES));
+                }
+                int start = (int) (pos - windowStart);
+                int end = start;
+                while (end < buf.limit() && buf.get(end) != '\n') {
+                    end++;
+                }
+                if (end == buf.limit() && windowStart + end < size) {
+                    /* the line runs past the window: map again from its start */
+                    windowStart = pos;
+                    buf = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                            Math.min(size - pos, Math.max(WINDOW_BYTES, 2L * (end - start))));
+                    continue;
+                }
+                if (!partial) {
+                    readLine(buf, start, end, names, v);
+                }
+                partial = false;
+                pos = windowStart + end + 1;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void readLine(ByteBuffer buf, int start, int end, Names names, Visitor v) {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+        boolean call = startsWith(buf, start, end, CALL_PREFIX);
+        if (!call && !startsWith(buf, start, end, RETURN_PREFIX)) {
+            if (startsWith(buf, start, end, BURST_PREFIX) || startsWith(buf, start, end, TEST_PREFIX)) {
+                readLine(decode(buf, start, end), names.symbols, v);
+            }
+            return;
+        }
+        int from = start + (call ? CALL_PREFIX.length : RETURN_PREFIX.length);
+        int at = from;
+        while (at + 1 < end && !(buf.get(at) == ' ' && buf.get(at + 1) == '@')) {
+            at++;
+        }
+        long thread = 0;
+        if (at + 1 < end) {
+            for (int i = at + 2; i < end; i++) {
+                byte b = buf.get(i);
+                if (b >= '0' && b <= '9') {
+                    thread = thread * 10 + b - '0';
+                }
+            }
+        } else {
+            at = end;
+        }
+        while (from < at && buf.get(from) == ' ') {
+            from++;
+        }
+        while (at > from && buf.get(at - 1) == ' ') {
+            at--;
+        }
+        int method = names.id(buf, from, at);
+        if (call) {
+            v.call(thread, method);
+        } else {
+            v.ret(thread, method);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean startsWith(ByteBuffer buf, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buf, int start, int end) {
+        byte[] b = new byte[end - start];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = buf.get(start + i);
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /* method names by their UTF-8 bytes, open addressing with linear probing */
+    private static final class Names {
+        final SymbolTable symbols;
+        private byte[][] bytes = new byte[1024][];
+        private int[] ids = new int[1024];
+        private int size;
+
+        Names(SymbolTable symbols) {
+            this.symbols = symbols;
+        }
+
+        int id(ByteBuffer buf, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + buf.get(i);
+            }
+            int mask = bytes.length - 1;
+            for (int i = (h ^ (h >>> 16)) & mask;; i = (i + 1) & mask) {
+                byte[] b = bytes[i];
+                if (b == null) {
+                    b = new byte[end - start];
+                    for (int j = 0; j < b.length; j++) {
+                        b[j] = buf.get(start + j);
+                    }
+                    int id = symbols.id(new String(b, StandardCharsets.UTF_8));
+                    bytes[i] = b;
+                    ids[i] = id;
+                    if (++size * 2 > bytes.length) {
+                        grow();
+                    }
+                    return id;
+                }
+                if (equals(b, buf, start, end)) {
+                    return ids[i];
+                }
+            }
+        }
+
+        private static boolean equals(byte[] b, ByteBuffer buf, int start, int end) {
+            if (b.length != end - start) {
+                return false;
+            }
+            for (int j = 0; j < b.length; j++) {
+                if (b[j] != buf.get(start + j)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldBytes = bytes;
+            int[] oldIds = ids;
+            bytes = new byte[oldBytes.length * 2][];
+            ids = new int[bytes.length];
+            int mask = bytes.length - 1;
+            for (int j = 0; j < oldBytes.length; j++) {
+                byte[] b = oldBytes[j];
+                if (b == null) {
+                    continue;
+                }
+                int h = 0;
+                for (byte x : b) {
+                    h = 31 * h + x;
+                }
+                int i = (h ^ (h >>> 16)) & mask;
+                while (bytes[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                bytes[i] = b;
+                ids[i] = oldIds[j];
+            }
+        }
+    }
+
+    /** The test names of a trace, from the trace file name plus ".tests". */
+    static List<String> tests(File trace) throws IOException {
+        List<String> tests = new ArrayList<String>();
+        File f = new File(trace.getPath() + ".tests");
+        if (f.isFile()) {
+            BufferedReader in = new BufferedReader(new FileReader(f));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    tests.add(line);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return tests;
+    }
+
+    public static void read(File trace, Visitor v) throws IOException {
+        read(trace, TraceRuntime.HEADER_BYTES, Long.MAX_VALUE, v);
+    }
+
+    /** The offsets of the chunks of a binary trace, in file order, from its chunk headers alone. */
+    static long[] chunks(File trace) throws IOException {
+        long[] offsets = new long[1024];
+        int n = 0;
+        RandomAccessFile file = new RandomAccessFile(trace, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(TraceRuntime.CHUNK_HEADER_BYTES);
+            for (long pos = TraceRuntime.HEADER_BYTES; pos + TraceRuntime.CHUNK_HEADER_BYTES <= size;) {
+                header.clear();
+                while (header.hasRemaining() && channel.read(header, pos + header.position()) > 0) {
+                }
+                if (n == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, n * 2);
+                }
+                offsets[n++] = pos;
+                pos += TraceRuntime.CHUNK_HEADER_BYTES + ((long) header.getInt(8) << 2);
+            }
+        } finally {
+            file.close();
+        }
+        return Arrays.copyOf(offsets, n);
+    }
+
+    /** The thread of every chunk of a binary trace, given the chunk offsets. */
+    static long[] chunkThreads(File trace, long[] chunks) throws IOException {
+        long[] threads = new long[chunks.length];
+        RandomAccessFile file = new RandomAccessFile(trace, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer thread = ByteBuffer.allocate(8);
+            for (int i = 0; i < chunks.length; i++) {
+                thread.clear();
+                while (thread.hasRemaining() && channel.read(thread, chunks[i] + thread.position()) > 0) {
+                }
+                threads[i] = thread.getLong(0);
+            }
+        } finally {
+            file.close();
+        }
+        return threads;
+    }
+
+    /**
+     * Cuts a trace into about {@code parts} ranges for parallel readers: runs
+     * of whole chunks of about the same number of bytes of a binary trace,
+     * spans of bytes of a text trace, whose reader moves each boundary to the
+     * next line.
+     */
+    static List<long[]> ranges(File trace, boolean binary, int parts) throws IOException {
+        parts = Math.max(1, parts);
+        List<long[]> ranges = new ArrayList<long[]>();
+        long size = trace.length();
+        if (!binary) {
+            long step = Math.max(1 << 20, (size + parts - 1) / parts);
+            for (long from = 0; from < size; from += step) {
+                ranges.add(new long[] { from, Math.min(size, from + step) });
+            }
+            return ranges;
+        }
+        long[] chunks = chunks(trace);
+        if (chunks.length == 0) {
+            return ranges;
+        }
+        long target = Math.max(1, (size - chunks[0]) / parts);
+        long from = chunks[0];
+        for (long c : chunks) {
+            if (c - from >= target) {
+                ranges.add(new long[] { from, c });
+                from = c;
+            }
+        }
+        ranges.add(new long[] { from, size });
+        return ranges;
+    }
+
+    /** Reads the chunks of a binary trace that start in [from, to); from must start a chunk. */
+    static void read(File trace, long from, long to, Visitor v) throws IOException {
+        List<String> tests = tests(trace);
+        RandomAccessFile file = new RandomAccessFile(trace, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(size, WINDOW_BYTES));
+            if (size < TraceRuntime.HEADER_BYTES || buf.getInt() != TraceRuntime.MAGIC) {
+                throw new IOException(trace + " is not a trace file");
+            }
+            int version = buf.getInt();
+            if (version != TraceRuntime.VERSION) {
+                throw new IOException(trace + ": unsupported trace version " + version);
+            }
+            long pos = from;
+            long windowStart = 0;
+            while (pos < Math.min(size, to)) {
+                if (pos - windowStart + TraceRuntime.CHUNK_HEADER_BYTES > buf.limit()) {
+                    windowStart = pos;
+                    buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size - pos, WINDOW_BYTES));
+                }
+                buf.position((int) (pos - windowStart));
+                long thread = buf.getLong();
+                int n = buf.getInt();
+                long bytes = TraceRuntime.CHUNK_HEADER_BYTES + ((long) n << 2);
+                if (pos - windowStart + bytes > buf.limit()) {
+                    windowStart = pos;
+                    buf = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                            Math.min(size - pos, Math.max(bytes, WINDOW_BYTES)));
+                    buf.position(TraceRuntime.CHUNK_HEADER_BYTES);
+                }
+                for (int i = 0; i < n; i++) {
+                    int record = buf.getInt();
+                    int method = record >>> TraceRuntime.KIND_BITS;
+                    int kind = record & TraceRuntime.KIND_MASK;
+                    if (kind == TraceRuntime.CALL) {
+                        v.call(thread, method);
+                    } else if (kind == TraceRuntime.RETURN) {
+                        v.ret(thread, method);
+                    } else if (kind == TraceRuntime.TEST) {
+                        /* method is the test index, the status follows */
+                        i++;
+                        v.test(thread, tests.get(method), buf.getInt());
+                    } else {
+                        /* method is the context depth; skipped calls and context follow */
+                        int skipped = buf.getInt();
+                        int[] context = new int[method];
+                        for (int j = 0; j < method; j++) {
+                            context[j] = buf.getInt();
+                        }
+                        i += method + 1;
+                        v.burst(thread, skipped, context);
+                    }
+                }
+                pos += bytes;
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,460 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runtime support for classes rewritten by {@link Instrument}.
+ *
+ * Every CALL/RETURN event is a single int record (method id shifted left by
+ * {@link #KIND_BITS}, event kind in the low bits) written into a ring buffer
+ * owned by the calling thread. A daemon thread drains the rings into a
+ * memory-mapped trace file as chunks of (thread id, record count, records),
+ * so the instrumented thread never takes a lock or touches a stream.
+ *
+ * With -Dtrace.mode=cct no events are written at all: each thread keeps a
+ * cursor into its own {@link ContextTree}, CALL moves it to (or creates) the
+ * child for the method and bumps its count, RETURN moves it back to the
+ * parent. The per-thread trees are merged and written to the trace file
+ * when the JVM exits; -Dtrace.threads=true also writes each thread's tree
+ * to the trace file name plus "." and the thread id.
+ *
+ * In this mode -Dtrace.time=true also adds up the time spent in every
+ * context and -Dtrace.alloc=true the bytes it allocated (on JVMs whose
+ * ThreadMXBean counts allocations per thread), making the tree a calling
+ * context profile. Profiles need every call and return, so they are not
+ * kept when sampling.
+ *
+ * -Dtrace.sample=M traces only bursts of -Dtrace.burst=N calls (default 1),
+ * on average one in every M calls of a thread, and the returns of the calls
+ * traced; a per-thread countdown of random length decides when the next
+ * burst starts (see {@link Sampler}). In a trace file every burst starts
+ * with a BURST record holding the context depth d, followed by the number
+ * of calls skipped since the previous burst and the d method ids of the
+ * context, outermost first; in a tree the skipped calls are kept so that
+ * counts can be scaled.
+ *
+ * {@link TestListener} marks where every test starts and finishes. A trace
+ * file gets a TEST record holding the test's index in the trace file name
+ * plus ".tests" (one test name per line), followed by the TEST_* status;
+ * in cct mode each test gets its own tree, written by {@link TestTrees} to
+ * the directory named like the trace file plus ".tests".
+ *
+ * Method ids are assigned by {@link Instrument} and decoded through its
+ * {@link SymbolTable}; use {@link TraceDump} to turn the trace back into
+ * CALL/RETURN text lines and {@link PrintCCT} to print a tree.
+ */
+public final class TraceRuntime {
+    public static final int MAGIC = 0x43435454; // "CCTT"
+    public static final int VERSION = 1;
+
+    public static final int KIND_BITS = 2;
+    public static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    public static final int CALL = 0;
+    public static final int RETURN = 1;
+    public static final int BURST = 2;
+    public static final int TEST = 3;
+
+    /* status following a TEST record, as named in TEST_STATUS */
+    public static final int TEST_STARTED = 0;
+    public static final int TEST_PASSED = 1;
+    public static final int TEST_FAILED = 2;
+    public static final int TEST_SKIPPED = 3;
+    public static final String[] TEST_STATUS = { "START", "PASS", "FAIL", "SKIP" };
+
+    /* file header is magic + version, every chunk starts with thread id + count */
+    public static final int HEADER_BYTES = 8;
+    public static final int CHUNK_HEADER_BYTES = 12;
+
+    private static final boolean CCT = "cct".equals(System.getProperty("trace.mode"));
+    private static final String FILE = System.getProperty("trace.file", CCT ? "trace.cct" : "trace.bin");
+    private static final boolean PER_THREAD = Boolean.getBoolean("trace.threads");
+    private static final int RING_RECORDS = powerOfTwo(Integer.getInteger("trace.ring", 1 << 16));
+    private static final int PERIOD = Integer.getInteger("trace.sample", 1);
+    private static final int BURST_CALLS = Integer.getInteger("trace.burst", 1);
+    private static final boolean TIME = Boolean.getBoolean("trace.time") && PERIOD <= 1;
+    private static final boolean ALLOC = Boolean.getBoolean("trace.alloc") && PERIOD <= 1;
+    private static final long WINDOW_BYTES = 64L << 20;
+    private static final long CLOSE_TIMEOUT_NANOS = 1000000000L;
+
+    private static final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<Ring>();
+    private static final ThreadLocal<Ring> ring = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Ring r = new Ring(Thread.currentThread());
+            rings.add(r);
+            return r;
+        }
+    };
+
+    private static final CopyOnWriteArrayList<ContextCursor> cursors = new CopyOnWriteArrayList<ContextCursor>();
+    private static final ThreadLocal<ContextCursor> cursor = new ThreadLocal<ContextCursor>() {
+        @Override
+        protected ContextCursor initialValue() {
+            ContextCursor c = new ContextCursor(Thread.currentThread().getId(), newSampler(), TIME, ALLOC);
+            cursors.add(c);
+            return c;
+        }
+    };
+
+    private static final List<String> tests = new ArrayList<String>();
+    private static final Map<String, Integer> testIds = new HashMap<String, Integer>();
+    private static TestTrees testTrees;
+
+    private static volatile boolean closed;
+    private static final Output out;
+    private static final Thread drainer;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        }, "trace-shutdown"));
+        if (CCT) {
+            out = null;
+            drainer = null;
+        } else {
+            out = openOutput();
+            drainer = startDrainer();
+        }
+    }
+
+    private TraceRuntime() {
+    }
+
+    public static void call(int method) {
+        if (CCT) {
+            ContextCursor c = cursor.get();
+            if (c.acquire()) {
+                try {
+                    c.call(method);
+                } finally {
+                    c.release();
+                }
+            }
+            return;
+        }
+        Ring r = ring.get();
+        if (r.sampler != null) {
+            int s = r.sampler.call(method);
+            if (s == Sampler.SKIP) {
+                return;
+            }
+            if (s == Sampler.START) {
+                r.putBurst();
+            }
+        }
+        r.put(method << KIND_BITS | CALL);
+    }
+
+    public static void ret(int method) {
+        if (CCT) {
+            ContextCursor c = cursor.get();
+            if (c.acquire()) {
+                try {
+                    c.ret(method);
+                } finally {
+                    c.release();
+                }
+            }
+            return;
+        }
+        Ring r = ring.get();
+        if (r.sampler == null || r.sampler.ret(method)) {
+            r.put(method << KIND_BITS | RETURN);
+        }
+    }
+
+    /** Marks the start of a test on the calling thread. */
+    public static void testStarted(String test) {
+        if (CCT) {
+            ContextCursor c = cursor.get();
+            if (c.acquire()) {
+                try {
+                    c.startTest();
+                } finally {
+                    c.release();
+                }
+            }
+        } else {
+            ring.get().put(testIndex(test) << KIND_BITS | TEST, TEST_STARTED);
+        }
+    }
+
+    /** Marks the end of a test with one of the TEST_* statuses. */
+    public static void testFinished(String test, int status) {
+        if (!CCT) {
+            ring.get().put(testIndex(test) << KIND_BITS | TEST, status);
+            return;
+        }
+        ContextCursor c = cursor.get();
+        if (!c.acquire()) {
+            return;
+        }
+        ContextTree tree;
+        try {
+            tree = c.finishTest();
+        } finally {
+            c.release();
+        }
+        if (tree != null) {
+            testTrees().submit(test, TEST_STATUS[status], tree);
+        }
+    }
+
+    private static synchronized int testIndex(String test) {
+        Integer i = testIds.get(test);
+        if (i == null) {
+            i = tests.size();
+            tests.add(test);
+            testIds.put(test, i);
+        }
+        return i;
+    }
+
+    private static synchronized TestTrees testTrees() {
+        if (testTrees == null) {
+            testTrees = new TestTrees(new File(FILE + ".tests"));
+        }
+        return testTrees;
+    }
+
+    private static synchronized void writeTests() throws IOException {
+        if (testTrees != null) {
+            testTrees.close();
+        }
+        if (tests.isEmpty()) {
+            return;
+        }
+        BufferedWriter w = new BufferedWriter(new FileWriter(FILE + ".tests"));
+        try {
+            for (String t : tests) {
+                w.write(t);
+                w.newLine();
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private static Sampler newSampler() {
+        return PERIOD > 1 ? new Sampler(BURST_CALLS, PERIOD) : null;
+    }
+
+    private static Output openOutput() {
+        try {
+            return new Output(FILE);
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static Thread startDrainer() {
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    if (drainAll() == 0) {
+                        LockSupport.parkNanos(1000000L);
+                    }
+                }
+            }
+        }, "trace-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        return drainer;
+    }
+
+    private static synchronized int drainAll() {
+        int drained = 0;
+        for (Iterator<Ring> it = rings.iterator(); it.hasNext();) {
+            Ring r = it.next();
+            int n = r.drainTo(out);
+            drained += n;
+            if (n == 0 && r.owner.get() == null) {
+                rings.remove(r);
+            }
+        }
+        return drained;
+    }
+
+    private static void close() {
+        closed = true;
+        try {
+            if (CCT) {
+                /* threads still running (daemons, other hooks) are kept out of their trees first */
+                ContextTree merged = new ContextTree();
+                for (ContextCursor c : cursors) {
+                    ContextTree tree = c.close(CLOSE_TIMEOUT_NANOS);
+                    if (tree == null) {
+                        System.err.println("trace: thread " + c.thread + " did not stop, its calls are left out");
+                        continue;
+                    }
+                    merged.merge(tree);
+                    if (PER_THREAD) {
+                        tree.write(new File(FILE + "." + c.thread));
+                    }
+                }
+                merged.write(new File(FILE));
+                writeTests();
+                return;
+            }
+            drainer.join(1000);
+            drainAll();
+            out.close();
+            writeTests();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("trace: could not finish " + FILE + ": " + e);
+        }
+    }
+
+    private static int powerOfTwo(int n) {
+        return Integer.highestOneBit(Math.max(n, 1024) - 1) << 1;
+    }
+
+    /** Single-producer single-consumer ring of int records backed by off-heap memory. */
+    static final class Ring {
+        private static final AtomicLongFieldUpdater<Ring> HEAD =
+                AtomicLongFieldUpdater.newUpdater(Ring.class, "head");
+
+        final WeakReference<Thread> owner;
+        final long threadId;
+        final Sampler sampler = newSampler();
+        final ByteBuffer buf = ByteBuffer.allocateDirect(RING_RECORDS << 2);
+        final int mask = RING_RECORDS - 1;
+        volatile long head;
+        volatile long tail;
+
+        Ring(Thread t) {
+            owner = new WeakReference<Thread>(t);
+            threadId = t.getId();
+        }
+
+        void put(int record) {
+            long h = head;
+            if (!reserve(h, 1)) {
+                return;
+            }
+            buf.putInt((int) (h & mask) << 2, record);
+            HEAD.lazySet(this, h + 1);
+        }
+
+        /* a record and its argument, published together */
+        void put(int record, int arg) {
+            long h = head;
+            if (!reserve(h, 2)) {
+                return;
+            }
+            buf.putInt((int) (h & mask) << 2, record);
+            buf.putInt((int) (h + 1 & mask) << 2, arg);
+            HEAD.lazySet(this, h + 2);
+        }
+
+        /*
+         * BURST record, skipped calls and context are published together so
+         * they always end up in the same chunk; a context deeper than half
+         * the ring keeps its innermost frames
+         */
+        void putBurst() {
+            int depth = Math.min(sampler.depth() - 1, RING_RECORDS / 2);
+            int[] stack = sampler.stack();
+            int from = sampler.depth() - 1 - depth;
+            long h = head;
+            if (!reserve(h, depth + 2)) {
+                return;
+            }
+            buf.putInt((int) (h & mask) << 2, depth << KIND_BITS | BURST);
+            buf.putInt((int) (h + 1 & mask) << 2, sampler.takeSkipped());
+            for (int i = 0; i < depth; i++) {
+                buf.putInt((int) (h + 2 + i & mask) << 2, stack[from + i]);
+            }
+            HEAD.lazySet(this, h + depth + 2);
+        }
+
+        private boolean reserve(long h, int n) {
+            while (h + n - tail > RING_RECORDS) {
+                if (closed) {
+                    return false;
+                }
+                LockSupport.unpark(drainer);
+                Thread.yield();
+            }
+            return true;
+        }
+
+        int drainTo(Output o) {
+            long h = head;
+            long t = tail;
+            int n = (int) (h - t);
+            if (n == 0) {
+                return 0;
+            }
+            ByteBuffer src = buf.duplicate();
+            int from = (int) (t & mask);
+            int first = Math.min(n, RING_RECORDS - from);
+            ByteBuffer dst = o.reserve(CHUNK_HEADER_BYTES + (n << 2));
+            dst.putLong(threadId).putInt(n);
+            src.limit((from + first) << 2).position(from << 2);
+            dst.put(src);
+            if (first < n) {
+                src.limit((n - first) << 2).position(0);
+                dst.put(src);
+            }
+            tail = h;
+            return n;
+        }
+    }
+
+    /** Append-only trace file written through a sliding memory-mapped window. */
+    static final class Output {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        Output(String name) throws IOException {
+            file = new RandomAccessFile(name, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            window = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_BYTES);
+            window.putInt(MAGIC).putInt(VERSION);
+        }
+
+        ByteBuffer reserve(int bytes) {
+            if (window.remaining() < bytes) {
+                try {
+                    windowStart += window.position();
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart,
+                            Math.max(WINDOW_BYTES, bytes));
+                } catch (IOException e) {
+                    throw new IllegalStateException("trace: cannot grow " + FILE, e);
+                }
+            }
+            return window;
+        }
+
+        void close() throws IOException {
+            long end = windowStart + window.position();
+            window.force();
+            channel.truncate(end);
+            file.close();
+        }
+    }
+}
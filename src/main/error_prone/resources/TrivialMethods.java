@@ -0,0 +1,328 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Finds the trivial leaf methods of the classes being instrumented, in a
+ * pass over their bytecode before any is rewritten, so that calls to them
+ * can be left untraced: they call nothing, and have no calling context of
+ * their own. A method is trivial if its code, ignoring labels, line numbers
+ * and frames, is one of
+ *
+ *   return this.f / return F       a getter of a field of its own class
+ *   this.f = x / F = x; return     a setter of a field of its own class
+ *   return constant                including a void method that only returns
+ *   super(); return                a constructor of a class whose superclass
+ *                                  is Object or has a trivial super()
+ *
+ * Calls bound at link time (static, private, constructors and super calls)
+ * are trivial if their target is. A virtual call is trivial if its target
+ * is final, in a final class, or not overridden by any of the classes seen,
+ * so subclasses that override a getter must be instrumented in the same run.
+ * Interface calls are always traced.
+ *
+ * The call sites left untraced are counted per caller and callee, and can be
+ * written as {@code caller,callee,sites} rows: the implied calls of a caller
+ * are its traced calls plus these, once per execution of each site.
+ */
+class TrivialMethods implements Opcodes {
+    private static final String OBJECT = "java/lang/Object";
+
+    /* the superclass of every class seen, and its methods and their access flags */
+    private final Map<String, String> supers = new HashMap<String, String>();
+    private final Map<String, Integer> classAccess = new HashMap<String, Integer>();
+    private final Map<String, Integer> methodAccess = new HashMap<String, Integer>();
+    private final Set<String> trivial = new HashSet<String>();
+    private final Set<String> overridden = new HashSet<String>();
+    /* constructors that are trivial if the super() they call is */
+    private final Map<String, String> superCalls = new HashMap<String, String>();
+    private final Map<String, Integer> implied = new HashMap<String, Integer>();
+
+    /** Classifies the methods of one class; call {@link #resolve} after the last. */
+    void add(byte[] classFile) {
+        new ClassReader(classFile).accept(new ClassVisitor(ASM5) {
+            private String owner;
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName,
+                    String[] interfaces) {
+                owner = name;
+                supers.put(name, superName);
+                classAccess.put(name, access);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                    String[] exceptions) {
+                methodAccess.put(owner + "." + name + desc, access);
+                if ((access & (ACC_ABSTRACT | ACC_NATIVE | ACC_SYNCHRONIZED)) != 0 || name.equals("<clinit>")) {
+                    return null;
+                }
+                return new Classifier(owner, supers.get(owner), access, name, desc);
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    /** Settles the constructors and overrides once every class has been added. */
+    void resolve() {
+        for (String ctor : superCalls.keySet()) {
+            if (emptyConstructor(ctor, new HashSet<String>())) {
+                trivial.add(ctor);
+            }
+        }
+        superCalls.clear();
+        for (String m : methodAccess.keySet()) {
+            int dot = m.indexOf('.');
+            String nameDesc = m.substring(dot);
+            if (nameDesc.startsWith(".<init>") || (methodAccess.get(m) & (ACC_STATIC | ACC_PRIVATE)) != 0) {
+                continue;
+            }
+            for (String s = supers.get(m.substring(0, dot)); s != null; s = supers.get(s)) {
+                overridden.add(s + nameDesc);
+            }
+        }
+    }
+
+    private boolean emptyConstructor(String ctor, Set<String> seen) {
+        if (trivial.contains(ctor)) {
+            return true;
+        }
+        String target = superCalls.get(ctor);
+        if (target == null || !seen.add(ctor)) {
+            return false;
+        }
+        return target.equals(OBJECT + ".<init>()V") || emptyConstructor(target, seen);
+    }
+
+    /** Whether a call instruction always runs a trivial method. */
+    boolean isTrivial(int opcode, String owner, String name, String desc) {
+        if (opcode == INVOKEINTERFACE) {
+            return false;
+        }
+        if (owner.equals(OBJECT) && name.equals("<init>") && desc.equals("()V")) {
+            return true;
+        }
+        /* the class that declares the method, as the JVM resolves it */
+        String declaring = owner;
+        while (declaring != null && !methodAccess.containsKey(declaring + "." + name + desc)) {
+            declaring = supers.get(declaring);
+        }
+        if (declaring == null) {
+            return false;
+        }
+        String method = declaring + "." + name + desc;
+        if (!trivial.contains(method)) {
+            return false;
+        }
+        if (opcode != INVOKEVIRTUAL) {
+            return true;
+        }
+        return (methodAccess.get(method) & (ACC_FINAL | ACC_PRIVATE)) != 0
+                || (classAccess.get(declaring) & ACC_FINAL) != 0 || !overridden.contains(method);
+    }
+
+    /** Counts a call site of caller that is left untraced. */
+    synchronized void imply(String caller, String callee) {
+        String key = caller + "," + callee;
+        Integer n = implied.get(key);
+        implied.put(key, n == null ? 1 : n + 1);
+    }
+
+    boolean isTrivial(String method) {
+        return trivial.contains(method);
+    }
+
+    int size() {
+        return trivial.size();
+    }
+
+    /** Writes the untraced call sites as caller,callee,sites rows, by caller. */
+    synchronized void writeImplied(File out) throws IOException {
+        List<String> keys = new ArrayList<String>(implied.keySet());
+        Collections.sort(keys);
+        BufferedWriter w = new BufferedWriter(new FileWriter(out));
+        try {
+            w.write("caller,callee,sites");
+            w.newLine();
+            for (String k : keys) {
+                w.write(k + "," + implied.get(k));
+                w.newLine();
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    /*
+     * keeps the first instructions of a method, as opcode and operand pairs,
+     * and matches them against the trivial shapes at the end
+     */
+    private final class Classifier extends MethodVisitor {
+        private static final int MAX = 4;
+        private static final int CONSTANT = -1;
+
+        private final String owner;
+        private final String superName;
+        private final boolean isStatic;
+        private final String name;
+        private final String desc;
+        private final int[] ops = new int[MAX];
+        /* the local variable of a load, or the owner of a field or method matches the expected one */
+        private final boolean[] own = new boolean[MAX];
+        private int size;
+        private String superCall;
+
+        Classifier(String owner, String superName, int access, String name, String desc) {
+            super(ASM5);
+            this.owner = owner;
+            this.superName = superName;
+            this.isStatic = (access & ACC_STATIC) != 0;
+            this.name = name;
+            this.desc = desc;
+        }
+
+        private void add(int op, boolean ownOperand) {
+            if (size < MAX) {
+                ops[size] = op;
+                own[size] = ownOperand;
+            }
+            size++;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            boolean constant = opcode >= ACONST_NULL && opcode <= DCONST_1;
+            add(constant ? CONSTANT : opcode, true);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            add(opcode == NEWARRAY ? opcode : CONSTANT, true);
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst) {
+            add(CONSTANT, true);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            /* the receiver, or the parameter of a setter */
+            int expected = isStatic || size == 0 ? 0 : 1;
+            add(opcode, var == expected);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String fieldOwner, String fieldName, String fieldDesc) {
+            add(opcode, fieldOwner.equals(owner));
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String methodOwner, String methodName, String methodDesc,
+                boolean itf) {
+            boolean superInit = opcode == INVOKESPECIAL && methodOwner.equals(superName)
+                    && methodName.equals("<init>") && methodDesc.equals("()V");
+            if (superInit) {
+                superCall = methodOwner + "." + methodName + methodDesc;
+            }
+            add(opcode, superInit);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            add(opcode, false);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            add(opcode, false);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            add(IINC, false);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            add(TABLESWITCH, false);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            add(LOOKUPSWITCH, false);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String type, int dims) {
+            add(MULTIANEWARRAY, false);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            add(INVOKEDYNAMIC, false);
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            size = MAX + 1;
+        }
+
+        @Override
+        public void visitEnd() {
+            if (size > MAX) {
+                return;
+            }
+            String method = owner + "." + name + desc;
+            if (name.equals("<init>")) {
+                if (size == 3 && ops[0] == ALOAD && own[0] && ops[1] == INVOKESPECIAL && own[1] && ops[2] == RETURN) {
+                    superCalls.put(method, superCall);
+                }
+            } else if (getter() || setter() || constant()) {
+                trivial.add(method);
+            }
+        }
+
+        private boolean isReturn(int op) {
+            return op >= IRETURN && op <= RETURN;
+        }
+
+        private boolean getter() {
+            if (isStatic) {
+                return size == 2 && ops[0] == GETSTATIC && own[0] && isReturn(ops[1]);
+            }
+            return size == 3 && ops[0] == ALOAD && own[0] && ops[1] == GETFIELD && own[1] && isReturn(ops[2]);
+        }
+
+        private boolean setter() {
+            if (isStatic) {
+                return size == 3 && isLoad(ops[0]) && own[0] && ops[1] == PUTSTATIC && own[1] && ops[2] == RETURN;
+            }
+            return size == 4 && ops[0] == ALOAD && own[0] && isLoad(ops[1]) && own[1] && ops[2] == PUTFIELD
+                    && own[2] && ops[3] == RETURN;
+        }
+
+        private boolean isLoad(int op) {
+            return op >= ILOAD && op <= ALOAD;
+        }
+
+        private boolean constant() {
+            return size == 1 && ops[0] == RETURN || size == 2 && ops[0] == CONSTANT && isReturn(ops[1]);
+        }
+    }
+}
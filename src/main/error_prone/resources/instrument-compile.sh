@@ -2,6 +2,7 @@
 
 cd $(dirname $0)
 
-javac -cp asm-5.0.4.jar Instrument.java
+javac -cp asm-5.0.4.jar:junit.jar *.java
+jar cfm trace-agent.jar agent.mf *.class
 
  
@@ -1,17 +1,18 @@
 #!/bin/bash
 
 outD="$(pwd)/reports/error-prone"
-cct1="python $(pwd)/CCT/CCT.py"
 
 mkdir -p $outD
 
 export experiment_root=$(pwd)
-export CLASSPATH=$experiment_root/error-prone/core/target/classes/instrumented:$experiment_root/error-prone/core/target/test-classes:$experiment_root/resources/junit.jar:.
+symbols=$experiment_root/error-prone/core/target/classes/instrumented/methods.sym
+export CLASSPATH=$experiment_root/error-prone/core/target/classes/instrumented:$experiment_root/error-prone/core/target/test-classes:$experiment_root/resources/junit.jar:$experiment_root/resources:.
 
 function go {
   local cls=$1
   local n=$2
-  java -cp $CLASSPATH junit.textui.TestRunner $cls 2> >(grep '^CALL\|^RETURN' | $cct1 $outD/$cls.cct) > $outD/$cls.out
+  java -cp $CLASSPATH -Dtrace.mode=cct -Dtrace.file=$outD/$cls.cct TestListener $cls > $outD/$cls.out
+  java -cp $experiment_root/resources PrintCCT $outD/$cls.cct $symbols > $outD/$cls.cct.txt
 }
 
 cd error-prone/core/target/test-classes
@@ -5,14 +5,16 @@ outD="$(pwd)/results/error-prone"
 mkdir -p $outD
 
 export experiment_root=$(pwd)
+symbols=$experiment_root/error-prone/core/target/classes/instrumented/methods.sym
 
-export CLASSPATH=$experiment_root/error-prone/core/target/classes/instrumented:$experiment_root/error-prone/core/target/test-classes:$experiment_root/resources/junit.jar:.
+export CLASSPATH=$experiment_root/error-prone/core/target/classes/instrumented:$experiment_root/error-prone/core/target/test-classes:$experiment_root/resources/junit.jar:$experiment_root/resources:.
 
 function go {
   local cls=$1
   local n=$2
   #java -cp $CLASSPATH org.junit.runner.JUnitCore $cls >> $outD/out/"output.txt"
-  java -cp $CLASSPATH org.junit.runner.JUnitCore $cls 2> >(grep '^CALL\|^RETURN' >> $outD/"output.txt")
+  java -cp $CLASSPATH -Dtrace.file=$outD/trace.bin org.junit.runner.JUnitCore $cls
+  java -cp $experiment_root/resources TraceDump $outD/trace.bin $symbols >> $outD/"output.txt"
 }
 
 cd error-prone/core/target/test-classes/
@@ -0,0 +1,17 @@
+#!/bin/bash
+
+# Runs the error-prone test suite under the load-time trace agent instead of an
+# instrumented copy of target/classes.
+
+outD="$(pwd)/results/error-prone"
+resources="$(pwd)/resources"
+
+mkdir -p $outD
+
+./resources/instrument-compile.sh
+
+agent="-javaagent:$resources/trace-agent.jar=include=com/google/errorprone/**;symbols=$outD/methods.sym"
+
+(cd error-prone/core && mvn test -DargLine="$agent -Dtrace.file=$outD/trace.bin")
+
+java -cp $resources TraceDump $outD/trace.bin $outD/methods.sym > $outD/output.txt
@@ -1,15 +1,22 @@
 #!/bin/bash
 
+# a class fails if any of its tests failed, as recorded in the tests.csv
+# TestListener leaves next to its tree; older runs only have the JUnit output
 for out in $1/*.out
 do
   nm="$(basename $out | sed 's/\.out$//')"
+  tests=$1/$nm.cct.tests/tests.csv
 
-  grep error $out > /dev/null
+  if [ -f $tests ]
+  then
+    cut -d, -f2 $tests | grep -x FAIL > /dev/null
+  else
+    grep error $out > /dev/null
+  fi
   if [ $? -eq 0 ]
   then
     echo $nm,FAIL
   else
     echo $nm,PASS
   fi
-  #echo "$nm,$(grep error $out | wc -l)"
-done
\ No newline at end of file
+done
@@ -0,0 +1,171 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a {@link TraceGrammar} read back from its text form expands to
+ * the trace it was built from, and that {@link GrammarMiner} writes the same
+ * CSV as {@link SequenceMiner} on that trace. The threads run nested loops
+ * whose last iteration stops part way, recursion, and gaps of a sampled
+ * trace.
+ */
+public class GrammarMinerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void grammarMinerMatchesSequenceMiner() throws IOException {
+        Map<Long, List<String>> threads = new LinkedHashMap<Long, List<String>>();
+        threads.put(1L, nestedLoops(50, 7));
+        threads.put(2L, nestedLoops(9, 3));
+        threads.get(2L).addAll(recursion(6, 4));
+        threads.get(2L).addAll(nestedLoops(20, 2));
+        File trace = tmp.newFile("trace.txt");
+        writeText(threads, new Random(3), trace);
+
+        File sym = new File(tmp.getRoot(), "methods.sym");
+        File grammar = new File(tmp.getRoot(), "trace.grammar");
+        TraceGrammar.main(new String[] { trace.getPath(), sym.getPath(), grammar.getPath() });
+        TraceGrammar g = TraceGrammar.read(grammar);
+        SymbolTable symbols = SymbolTable.load(sym);
+        assertTrue("the loops fold into rules using rules", nested(g));
+        assertEquals(threads.keySet(), g.threads.keySet());
+        for (Map.Entry<Long, TraceGrammar.Sequence> e : g.threads.entrySet()) {
+            List<String> expanded = new ArrayList<String>();
+            TraceGrammar.Sequence s = e.getValue();
+            expand(g, symbols, s.symbols, s.reps, s.size, expanded);
+            assertEquals(threads.get(e.getKey()), expanded);
+        }
+
+        for (int k = 1; k <= 5; k++) {
+            File expected = new File(tmp.getRoot(), "sequence" + k + ".csv");
+            File actual = new File(tmp.getRoot(), "grammar" + k + ".csv");
+            SequenceMiner.main(new String[] { trace.getPath(), sym.getPath(), "" + k, expected.getPath() });
+            GrammarMiner.main(new String[] { grammar.getPath(), sym.getPath(), "" + k, actual.getPath() });
+            assertEquals("k = " + k, read(expected), read(actual));
+        }
+    }
+
+    /*
+     * a() { b() { c(); c() } inner times; d() } outer times, then a last
+     * iteration that stops in the second c() of its last b(), and a gap
+     */
+    private static List<String> nestedLoops(int outer, int inner) {
+        List<String> events = new ArrayList<String>();
+        for (int i = 0; i <= outer; i++) {
+            events.add("CALL p/A.a()V");
+            for (int j = 0; j < inner; j++) {
+                events.add("CALL p/B.b()V");
+                for (int c = 0; c < 2; c++) {
+                    if (i == outer && j == inner - 1 && c == 1) {
+                        events.add("CALL p/C.c()V");
+                        events.add("BURST");
+                        return events;
+                    }
+                    events.add("CALL p/C.c()V");
+                    events.add("RETURN p/C.c()V");
+                }
+                events.add("RETURN p/B.b()V");
+            }
+            events.add("CALL p/D.d(I)V");
+            events.add("RETURN p/D.d(I)V");
+            events.add("RETURN p/A.a()V");
+        }
+        return events;
+    }
+
+    /* f() recursing depth levels deep, times times, the last time only half way back */
+    private static List<String> recursion(int depth, int times) {
+        List<String> events = new ArrayList<String>();
+        for (int t = 0; t < times; t++) {
+            for (int d = 0; d < depth; d++) {
+                events.add("CALL p/F.f(I)I");
+            }
+            for (int d = 0; d < (t < times - 1 ? depth : depth / 2); d++) {
+                events.add("RETURN p/F.f(I)I");
+            }
+        }
+        return events;
+    }
+
+    /* the threads' events in runs of random length, each line followed by its thread */
+    private static void writeText(Map<Long, List<String>> threads, Random random, File trace) throws IOException {
+        Map<Long, Integer> next = new LinkedHashMap<Long, Integer>();
+        for (long t : threads.keySet()) {
+            next.put(t, 0);
+        }
+        List<Long> ids = new ArrayList<Long>(threads.keySet());
+        BufferedWriter w = new BufferedWriter(new FileWriter(trace));
+        try {
+            while (!next.isEmpty()) {
+                long t = ids.get(random.nextInt(ids.size()));
+                if (!next.containsKey(t)) {
+                    continue;
+                }
+                List<String> events = threads.get(t);
+                int from = next.get(t);
+                int to = Math.min(events.size(), from + 1 + random.nextInt(40));
+                for (int i = from; i < to; i++) {
+                    String line = events.get(i);
+                    w.write((line.equals("BURST") ? "BURST 5" : line) + " @" + t);
+                    w.newLine();
+                }
+                if (to == events.size()) {
+                    next.remove(t);
+                } else {
+                    next.put(t, to);
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private static boolean nested(TraceGrammar g) {
+        for (int[] body : g.ruleSymbols) {
+            for (int s : body) {
+                if (TraceGrammar.isRule(s)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void expand(TraceGrammar g, SymbolTable symbols, int[] body, long[] reps, int size,
+            List<String> out) {
+        for (int i = 0; i < size; i++) {
+            for (long n = 0; n < reps[i]; n++) {
+                int s = body[i];
+                if (s == TraceGrammar.GAP) {
+                    out.add("BURST");
+                } else if (TraceGrammar.isRule(s)) {
+                    int r = TraceGrammar.rule(s);
+                    expand(g, symbols, g.ruleSymbols.get(r), g.ruleReps.get(r), g.ruleSymbols.get(r).length, out);
+                } else {
+                    String kind = (s & TraceRuntime.KIND_MASK) == TraceRuntime.CALL ? "CALL " : "RETURN ";
+                    out.add(kind + symbols.name(s >>> TraceRuntime.KIND_BITS));
+                }
+            }
+        }
+    }
+
+    private static String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+}
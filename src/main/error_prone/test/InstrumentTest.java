@@ -0,0 +1,120 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Instruments a class with -entry, runs it in a JVM of its own and checks
+ * that every CALL in its trace is closed by a RETURN of the same method, on
+ * normal returns, on throws caught further up, and in constructors that
+ * delegate to this(...) or throw. The class is compiled for Java 8, the
+ * newest class files ASM 5 reads.
+ */
+public class InstrumentTest {
+    private static final String SOURCE = String.join("\n",
+            "public class Traced {",
+            "    private final int n;",
+            "    Traced(int n) { this.n = n; }",
+            "    Traced() { this(1); }",
+            "    Traced(String bad) { this(); throw new IllegalArgumentException(bad); }",
+            "    int twice() { return n * 2; }",
+            "    int fail() { if (n > 0) { throw new IllegalStateException(); } return n; }",
+            "    int caught() { try { return fail(); } catch (IllegalStateException e) { return -1; } }",
+            "    int nested(int d) { return d == 0 ? twice() : nested(d - 1) + 1; }",
+            "    public static void main(String[] args) {",
+            "        Traced t = new Traced();",
+            "        t.twice();",
+            "        t.caught();",
+            "        t.nested(3);",
+            "        try { new Traced(2).fail(); } catch (IllegalStateException e) { }",
+            "        try { new Traced(\"bad\"); } catch (IllegalArgumentException e) { }",
+            "    }",
+            "}", "");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void entryModeBalancesCallsAndReturns() throws Exception {
+        File src = tmp.newFolder("src");
+        File classes = tmp.newFolder("classes");
+        File instrumented = tmp.newFolder("instrumented");
+        File java = new File(src, "Traced.java");
+        Files.write(java.toPath(), SOURCE.getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "--release", "8", "-d",
+                classes.getPath(), java.getPath()));
+
+        File sym = new File(tmp.getRoot(), "methods.sym");
+        Instrument.main(new String[] { "-entry", new File(classes, "Traced.class").getPath(),
+                new File(instrumented, "Traced.class").getPath(), sym.getPath() });
+        File trace = new File(tmp.getRoot(), "trace.bin");
+        Process p = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Dtrace.file=" + trace.getPath(), "-cp",
+                instrumented.getPath() + File.pathSeparator + System.getProperty("java.class.path"), "Traced")
+                .inheritIO().start();
+        assertEquals(0, p.waitFor());
+
+        final SymbolTable symbols = SymbolTable.load(sym);
+        final Map<Long, Deque<Integer>> stacks = new HashMap<Long, Deque<Integer>>();
+        final Map<String, Integer> calls = new TreeMap<String, Integer>();
+        TraceReader.read(trace, new TraceReader.Visitor() {
+            @Override
+            public void call(long thread, int method) {
+                stack(thread).push(method);
+                String name = symbols.name(method);
+                calls.put(name, (calls.containsKey(name) ? calls.get(name) : 0) + 1);
+            }
+
+            @Override
+            public void ret(long thread, int method) {
+                Deque<Integer> stack = stack(thread);
+                assertTrue("RETURN " + symbols.name(method) + " without a CALL", !stack.isEmpty());
+                assertEquals(symbols.name(stack.pop()), symbols.name(method));
+            }
+
+            @Override
+            public void burst(long thread, int skipped, int[] context) {
+            }
+
+            @Override
+            public void test(long thread, String test, int status) {
+            }
+
+            private Deque<Integer> stack(long thread) {
+                Deque<Integer> stack = stacks.get(thread);
+                if (stack == null) {
+                    stack = new ArrayDeque<Integer>();
+                    stacks.put(thread, stack);
+                }
+                return stack;
+            }
+        });
+        for (Deque<Integer> stack : stacks.values()) {
+            assertTrue("CALL without a RETURN", stack.isEmpty());
+        }
+
+        Map<String, Integer> expected = new TreeMap<String, Integer>();
+        expected.put("Traced.main([Ljava/lang/String;)V", 1);
+        expected.put("Traced.<init>(I)V", 3);
+        expected.put("Traced.<init>()V", 2);
+        expected.put("Traced.<init>(Ljava/lang/String;)V", 1);
+        expected.put("Traced.twice()I", 2);
+        expected.put("Traced.fail()I", 2);
+        expected.put("Traced.caught()I", 1);
+        expected.put("Traced.nested(I)I", 4);
+        assertEquals(expected, calls);
+    }
+}
@@ -0,0 +1,104 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that sampled calling context trees estimate the true call counts
+ * of a loop whose length shares a factor with the sampling period, the
+ * case where a fixed countdown falls into step with the loop. The samplers
+ * draw from seeded generators, so every run sees the same samples.
+ */
+public class SamplerTest {
+    private static final int RUN = 1;
+    private static final int INIT = 2;
+    private static final int SET_X = 3;
+    private static final int LEAF = 4;
+    private static final int THROWER = 5;
+    private static final int GET = 6;
+    private static final int METHODS = 7;
+
+    /*
+     * one iteration of the loop, 10 calls: a call is its method id, a return
+     * its negated id; thrower throws, so its return is missing
+     */
+    private static final int[] LOOP = { RUN, INIT, SET_X, -SET_X, -INIT, LEAF, -LEAF, LEAF, -LEAF, THROWER, LEAF,
+            -LEAF, LEAF, -LEAF, GET, -GET, GET, -GET, -RUN };
+    private static final int ITERATIONS = 200000;
+    private static final long SEED = 42;
+
+    @Test
+    public void estimatesCountsWithSingleCalls() {
+        checkEstimates(1, 10);
+        checkEstimates(1, 5);
+        checkEstimates(1, 4);
+    }
+
+    @Test
+    public void estimatesCountsWithBursts() {
+        checkEstimates(3, 10);
+        checkEstimates(2, 4);
+    }
+
+    @Test
+    public void tracesReturnsOfTracedCalls() {
+        for (int burst : new int[] { 1, 3 }) {
+            Sampler sampler = new Sampler(burst, 10, new Random(SEED));
+            for (int i = 0; i < ITERATIONS; i++) {
+                boolean[] traced = new boolean[METHODS];
+                for (int e : LOOP) {
+                    if (e > 0) {
+                        traced[e] = sampler.call(e) != Sampler.SKIP;
+                    } else {
+                        assertEquals(traced[-e], sampler.ret(-e));
+                    }
+                }
+                assertEquals(0, sampler.depth());
+            }
+        }
+    }
+
+    /*
+     * the estimate of every method's calls is within twice its 95% bound of
+     * the true count; the calls of a burst are not independent, so bursts
+     * of b calls get b times the bound
+     */
+    private static void checkEstimates(int burst, int period) {
+        ContextCursor exact = new ContextCursor(0);
+        ContextCursor sampled = new ContextCursor(0, new Sampler(burst, period, new Random(SEED)), false, false);
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (int e : LOOP) {
+                if (e > 0) {
+                    exact.call(e);
+                    sampled.call(e);
+                } else {
+                    exact.ret(-e);
+                    sampled.ret(-e);
+                }
+            }
+        }
+        sampled.flush();
+        long[] truth = countsByMethod(exact.tree);
+        long[] counted = countsByMethod(sampled.tree);
+        double rate = sampled.tree.samplingRate();
+        assertEquals((double) burst / period, rate, 0.01);
+        for (int m = RUN; m < METHODS; m++) {
+            long estimate = ContextTree.estimate(counted[m], rate);
+            long bound = ContextTree.bound(counted[m], rate);
+            assertTrue("burst " + burst + " period " + period + " method " + m + ": " + estimate + " +- " + bound
+                    + " for " + truth[m], Math.abs(estimate - truth[m]) <= 2 * bound * burst);
+        }
+    }
+
+    private static long[] countsByMethod(ContextTree tree) {
+        long[] counts = new long[METHODS];
+        for (int n = 0; n < tree.size(); n++) {
+            if (n != ContextTree.ROOT) {
+                counts[tree.method(n)] += tree.count(n);
+            }
+        }
+        return counts;
+    }
+}
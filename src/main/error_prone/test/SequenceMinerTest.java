@@ -0,0 +1,159 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link ParallelSequenceMiner} writes the same CSV as
+ * {@link SequenceMiner} on binary and text traces of several interleaved
+ * threads with sampling gaps, large enough to be cut into several ranges.
+ * Each miner interns the names of a text trace into a table of its own.
+ */
+public class SequenceMinerTest {
+    private static final int THREADS = 3;
+    private static final int COMMON = 12;
+    private static final int EVENTS = 200000;
+    /* a rare method is first called late in the trace, a new one every 1000 events */
+    private static final int METHODS = COMMON + EVENTS / 1000 + 1;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void parallelMatchesSequentialOnBinaryTraces() throws IOException {
+        List<int[]> events = events(new Random(1));
+        File sym = tmp.newFile("methods.sym");
+        writeSymbols(sym);
+        File trace = tmp.newFile("trace.bin");
+        writeBinary(events, trace);
+        for (int k = 2; k <= 4; k++) {
+            assertSameOutput(trace, sym, sym, k);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequentialOnTextTraces() throws IOException {
+        List<int[]> events = events(new Random(2));
+        File trace = tmp.newFile("trace.txt");
+        writeText(events, trace);
+        for (int k = 2; k <= 4; k++) {
+            File sequential = new File(tmp.getRoot(), "s" + k + ".sym");
+            File parallel = new File(tmp.getRoot(), "p" + k + ".sym");
+            assertSameOutput(trace, sequential, parallel, k);
+        }
+    }
+
+    private void assertSameOutput(File trace, File sequentialSym, File parallelSym, int k) throws IOException {
+        File expected = new File(tmp.getRoot(), "sequential" + k + ".csv");
+        File actual = new File(tmp.getRoot(), "parallel" + k + ".csv");
+        SequenceMiner.main(new String[] { trace.getPath(), sequentialSym.getPath(), "" + k, expected.getPath() });
+        ParallelSequenceMiner.main(new String[] { "-threads", "4", trace.getPath(), parallelSym.getPath(), "" + k,
+                actual.getPath() });
+        assertEquals(read(expected), read(actual));
+    }
+
+    private static String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /*
+     * {thread, kind, method} events: runs of calls and returns of one thread,
+     * a few common methods and rare ones that first turn up in later ranges
+     * of the trace, whose sequences tie at low counts, and now and then a
+     * burst after a gap
+     */
+    private static List<int[]> events(Random random) {
+        List<int[]> events = new ArrayList<int[]>();
+        int[] depth = new int[THREADS];
+        int[][] stack = new int[THREADS][64];
+        while (events.size() < EVENTS) {
+            int t = random.nextInt(THREADS);
+            for (int run = 1 + random.nextInt(300); run > 0; run--) {
+                int r = random.nextInt(100);
+                if (r == 0) {
+                    events.add(new int[] { t, TraceRuntime.BURST, 0 });
+                } else if (depth[t] > 0 && (r < 45 || depth[t] == 64)) {
+                    events.add(new int[] { t, TraceRuntime.RETURN, stack[t][--depth[t]] });
+                } else {
+                    int m = r < 50 ? COMMON + events.size() / 1000 : random.nextInt(COMMON);
+                    stack[t][depth[t]++] = m;
+                    events.add(new int[] { t, TraceRuntime.CALL, m });
+                }
+            }
+        }
+        return events;
+    }
+
+    private static String name(int m) {
+        return "p/C" + m % 4 + ".m" + m + "()V";
+    }
+
+    private static void writeSymbols(File sym) throws IOException {
+        BufferedWriter w = new BufferedWriter(new FileWriter(sym));
+        try {
+            for (int m = 0; m < METHODS; m++) {
+                w.write(name(m));
+                w.newLine();
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    /* one chunk per run of events of a thread; a burst has no context */
+    private static void writeBinary(List<int[]> events, File trace) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(trace)));
+        try {
+            out.writeInt(TraceRuntime.MAGIC);
+            out.writeInt(TraceRuntime.VERSION);
+            List<Integer> records = new ArrayList<Integer>();
+            for (int i = 0; i < events.size(); i++) {
+                int[] e = events.get(i);
+                if (e[1] == TraceRuntime.BURST) {
+                    records.add(TraceRuntime.BURST);
+                    records.add(7);
+                } else {
+                    records.add(e[2] << TraceRuntime.KIND_BITS | e[1]);
+                }
+                if (i + 1 == events.size() || events.get(i + 1)[0] != e[0]) {
+                    out.writeLong(e[0]);
+                    out.writeInt(records.size());
+                    for (int r : records) {
+                        out.writeInt(r);
+                    }
+                    records.clear();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeText(List<int[]> events, File trace) throws IOException {
+        BufferedWriter w = new BufferedWriter(new FileWriter(trace));
+        try {
+            for (int[] e : events) {
+                String line = e[1] == TraceRuntime.BURST ? "BURST 7"
+                        : (e[1] == TraceRuntime.CALL ? "CALL " : "RETURN ") + name(e[2]);
+                w.write(line + " @" + e[0]);
+                w.newLine();
+            }
+        } finally {
+            w.close();
+        }
+    }
+}
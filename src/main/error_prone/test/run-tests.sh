@@ -0,0 +1,12 @@
+#!/bin/bash
+
+# compiles the tracing tools with their tests, apart from the agent's
+# classes, and runs every *Test class
+cd $(dirname $0)
+resources=../resources
+classes=$(mktemp -d)
+trap "rm -rf $classes" EXIT
+CP=$resources/asm-5.0.4.jar:$resources/junit.jar
+
+javac -nowarn -d $classes -cp $CP $resources/*.java *.java || exit 1
+java -cp $classes:$CP org.junit.runner.JUnitCore $(ls *Test.java | sed 's/\.java$//')
@@ -3,12 +3,19 @@ import sys
 import pickle
 
 counts = {}
-context=[]
+contexts = {}
 
 for ln in sys.stdin:
+  # one context stack per thread ("CALL name @thread")
+  fields = ln.split()
+  if not fields:
+    continue
+  thread = fields[-1] if fields[-1][0] == '@' else '@0'
+  context = contexts.setdefault(thread, [])
+
   if ln[0:4] == 'CALL':
     # push
-    context.append(ln[5:-1]) 
+    context.append(fields[1])
 
     # get key
     s = ':'.join(context)
@@ -19,9 +26,17 @@ for ln in sys.stdin:
 
     # increment counter
     counts[s] += 1
+  elif ln[0:5] == 'BURST':
+    # sampled trace resumes: "BURST skipped context... @thread"
+    contexts[thread] = [f for f in fields[2:] if f[0] != '@']
   else:
     # pop
-    context = context[:-1] 
+    contexts[thread] = context[:-1]
+
+# contexts are keyed by method id; decode them only for the final report
+if len(sys.argv) > 2:
+  names = [ln.rstrip('\n') for ln in open(sys.argv[2])]
+  counts = dict((':'.join(names[int(m)] for m in k.split(':')), n) for (k,n) in counts.iteritems())
 
 pickle.dump(counts,open(sys.argv[1],'w'))
 
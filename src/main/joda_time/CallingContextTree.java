@@ -7,12 +7,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Stack;
 
 public class CallingContextTree {
-	int spaces = 0;
 	HashMap<Integer, String> map = new HashMap<Integer, String>();
 
 	public static void main(String[] args) throws IOException {
@@ -25,38 +25,44 @@ public class CallingContextTree {
 	public ArrayList<String> createCCT() throws IOException {
 		BufferedReader input = new BufferedReader(new FileReader(
 				"src/main/joda_time/results/joda-time/SegmentedOutputStackTrace.txt"));
-		Stack<String> stack = new Stack<String>();
-		ArrayList<String> list = new ArrayList<>();
-		String padding = "";
+		// TraceDump ends every line with "@thread"; each thread has a stack and
+		// a tree of its own, printed in the order the threads first show up
+		Map<String, Stack<String>> stacks = new LinkedHashMap<>();
+		Map<String, ArrayList<String>> trees = new LinkedHashMap<>();
 
 		while (input.ready()) {
 			String line = input.readLine();
-			if (stack.isEmpty() && line.contains("CALL")) {
+			String thread = "";
+			int at = line.lastIndexOf(" @");
+			if (at != -1) {
+				thread = line.substring(at + 2);
+				line = line.substring(0, at);
+			}
+			Stack<String> stack = stacks.get(thread);
+			if (stack == null) {
+				stack = new Stack<String>();
+				stacks.put(thread, stack);
+				trees.put(thread, new ArrayList<String>());
+			}
+			ArrayList<String> list = trees.get(thread);
+			if (line.contains("CALL")) {
+				if (stack.isEmpty())
+					list.add("");
+				list.add(padString(stack.size()) + line);
 				stack.push("");
-				padding = padString();
-				list.add("");
-				list.add(padding + line);
-				spaces++;
-			} else {
-				if (line.contains("CALL")) {
-					stack.push("");
-					padding = padString();
-					list.add(padding + line);
-					spaces++;
-				}
-				if (line.contains("RETURN")) {
-					stack.pop();
-					spaces--;
-					padding = padString();
-					list.add(padding + line);
-				}
+			} else if (line.contains("RETURN") && !stack.isEmpty()) {
+				stack.pop();
+				list.add(padString(stack.size()) + line);
 			}
 		}
 		input.close();
+		ArrayList<String> list = new ArrayList<>();
+		for (ArrayList<String> tree : trees.values())
+			list.addAll(tree);
 		return list;
 	}
 
-	public String padString() {
+	public String padString(int spaces) {
 		String padding = map.get(spaces);
 		if (padding == null) {
 			int i = 0;
@@ -77,13 +83,13 @@ public class CallingContextTree {
 				"src/main/joda_time/results/joda-time/JT_CCT.txt"));
 		int count = 1;
 		ArrayList<String> nlist = new ArrayList<>();
-		for (int i = 0; i < list.size() - 2; i++) {
+		for (int i = 0; i < list.size(); i++) {
 			if (list.get(i).equals("")) {
 				output.newLine();
 				continue;
 			}
 			if (list.get(i).contains("CALL")) {
-				if (list.get(i).equals(list.get(i + 2))) {
+				if (i + 2 < list.size() && list.get(i).equals(list.get(i + 2))) {
 					count++;
 					i++;
 				} else {
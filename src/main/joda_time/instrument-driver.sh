@@ -1,16 +1,12 @@
 #!/bin/bash
 
 main=$(pwd)
-resources="$main/resources"
+# the tracing tools are shared with error_prone
+resources="$main/../error_prone/resources"
 
 export CLASSPATH=$resources:$resources/asm-5.0.4.jar:.
 echo $CLASSPATH
 
 cd joda-time/target/classes
-mkdir -p instrumented
-
-for f in $(find org -name '*class')
-do
-  mkdir -p instrumented/$(dirname $f)
-  java -cp $CLASSPATH Instrument $f instrumented/$f
-done	
+rm -rf instrumented
+java -cp $CLASSPATH Instrument . instrumented instrumented/methods.sym
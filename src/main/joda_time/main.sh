@@ -1,6 +1,6 @@
 #!/bin/bash
 
-./resources/instrument-compile.sh
+../error_prone/resources/instrument-compile.sh
 # cd joda-time
 # mvn clean 
 # mvn compile
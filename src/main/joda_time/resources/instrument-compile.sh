@@ -1,7 +1,4 @@
 #!/bin/bash
 
-cd $(dirname $0)
-
-javac -cp asm-5.0.4.jar Instrument.java
-
- 
+# The tracing runtime and tools are shared with error_prone.
+exec $(dirname $0)/../../error_prone/resources/instrument-compile.sh
@@ -1,17 +1,19 @@
 #!/bin/bash
 
 outD="$(pwd)/reports/joda-time"
-cct1="python $(pwd)/CCT/CCT.py"
 
 mkdir -p $outD
 
 export experiment_root=$(pwd)
-export CLASSPATH=$experiment_root/joda-time/target/classes/instrumented:$experiment_root/joda-time/target/test-classes:$experiment_root/resources/junit.jar:.
+resources=$experiment_root/../error_prone/resources
+symbols=$experiment_root/joda-time/target/classes/instrumented/methods.sym
+export CLASSPATH=$experiment_root/joda-time/target/classes/instrumented:$experiment_root/joda-time/target/test-classes:$resources/junit.jar:$resources:.
 
 function go {
   local cls=$1
   local n=$2
-  java -cp $CLASSPATH junit.textui.TestRunner $cls 2> >(grep '^CALL\|^RETURN' | $cct1 $outD/$cls.cct) > $outD/$cls.out
+  java -cp $CLASSPATH -Dtrace.mode=cct -Dtrace.file=$outD/$cls.cct TestListener $cls > $outD/$cls.out
+  java -cp $resources PrintCCT $outD/$cls.cct $symbols > $outD/$cls.cct.txt
 }
 
 cd joda-time/target/test-classes
@@ -5,16 +5,17 @@ outD="$(pwd)/results/joda-time"
 mkdir -p $outD
 
 export experiment_root=$(pwd)
+resources=$experiment_root/../error_prone/resources
+symbols=$experiment_root/joda-time/target/classes/instrumented/methods.sym
 
-cp -R $experiment_root/joda-time/target/classes/META-INF $experiment_root/joda-time/target/classes/instrumented/META-INF
-
-export CLASSPATH=$experiment_root/joda-time/target/classes/instrumented:$experiment_root/joda-time/target/test-classes:$experiment_root/resources/junit.jar:.
+export CLASSPATH=$experiment_root/joda-time/target/classes/instrumented:$experiment_root/joda-time/target/test-classes:$resources/junit.jar:$resources:.
 
 function go {
   local cls=$1
   local n=$2
   #java -cp $CLASSPATH org.junit.runner.JUnitCore $cls >> $outD/out/"output.txt"
-  java -cp $CLASSPATH org.junit.runner.JUnitCore $cls 2> >(grep '^CALL\|^RETURN' >> $outD/"output.txt")
+  java -cp $CLASSPATH -Dtrace.file=$outD/trace.bin org.junit.runner.JUnitCore $cls
+  java -cp $resources TraceDump $outD/trace.bin $symbols >> $outD/"output.txt"
 }
 
 cd joda-time/target/test-classes/
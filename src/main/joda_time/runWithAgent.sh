@@ -0,0 +1,17 @@
+#!/bin/bash
+
+# Runs the joda-time test suite under the load-time trace agent instead of an
+# instrumented copy of target/classes.
+
+outD="$(pwd)/results/joda-time"
+resources="$(pwd)/../error_prone/resources"
+
+mkdir -p $outD
+
+$resources/instrument-compile.sh
+
+agent="-javaagent:$resources/trace-agent.jar=include=org/joda/time/**;symbols=$outD/methods.sym"
+
+(cd joda-time && mvn test -DargLine="$agent -Dtrace.file=$outD/trace.bin")
+
+java -cp $resources TraceDump $outD/trace.bin $outD/methods.sym > $outD/output.txt
@@ -0,0 +1,288 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Java version of gitpy.py: lists the files changed by each of the last n
+ * commits of a local repository, against every parent, and labels the
+ * commit New, Change or Other by the keywords of its message, with the same
+ * rules as gitpy.py. The output has gitpy.py's outputwithlabel.txt format,
+ * one {@code file file ... label} line per commit with changed files,
+ * oldest first.
+ *
+ * Commits come from `git rev-list` and their messages and changed files
+ * from `git log --no-walk -m --name-status`, streamed and parsed line by
+ * line; uncached commits are split into batches mined by parallel git
+ * processes. Every result is appended to a cache file keyed by commit SHA,
+ * one {@code sha<TAB>label<TAB>file<TAB>...} line (label None for a commit
+ * without changed files, e.g. the root), so a re-run only runs git for the
+ * commits added since.
+ *
+ * Usage: java CommitMiner [-n 500] [-branch master] [-cache file] [-threads n] repo [out.txt]
+ *
+ * The cache defaults to repo/.git/commitminer.cache.
+ */
+public class CommitMiner {
+    static final String[] NEW = { "ADD", "SETUP", "MORE", "MOVE", "INITIAL", "FIRST", "SUPPORT" };
+    static final String[] CHANGES = { "UPDATE", "FIX", "CHANGE", "FINISH", "DROP", "REMOVE", "INTEGRATE" };
+    static final String NONE = "None";
+    private static final int BATCH = 200;
+
+    private final File repo;
+    private final File cache;
+    private final Map<String, String> results = new ConcurrentHashMap<String, String>();
+
+    public CommitMiner(File repo, File cache) {
+        this.repo = repo;
+        this.cache = cache;
+    }
+
+    public static void main(final String args[]) throws IOException, InterruptedException {
+        int n = 500;
+        String branch = "master";
+        String cacheName = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int a = 0;
+        for (; a < args.length && args[a].startsWith("-"); a += 2) {
+            if (args[a].equals("-n")) {
+                n = Integer.parseInt(args[a + 1]);
+            } else if (args[a].equals("-branch")) {
+                branch = args[a + 1];
+            } else if (args[a].equals("-cache")) {
+                cacheName = args[a + 1];
+            } else if (args[a].equals("-threads")) {
+                threads = Integer.parseInt(args[a + 1]);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        File repo = new File(args[a]);
+        File cache = cacheName != null ? new File(cacheName) : new File(new File(repo, ".git"), "commitminer.cache");
+        String out = args.length > a + 1 ? args[a + 1] : "outputwithlabel.txt";
+
+        CommitMiner miner = new CommitMiner(repo, cache);
+        miner.loadCache();
+        List<String> commits = miner.commits(branch, n);
+        int mined = miner.mine(commits, threads);
+        miner.write(commits, new File(out));
+        System.out.println(commits.size() + " commits, " + mined + " mined, " + (commits.size() - mined)
+                + " from the cache");
+    }
+
+    /** The label of a commit message: New, Change or Other. */
+    static String label(String message) {
+        String upper = message.toUpperCase(Locale.ROOT);
+        for (String x : NEW) {
+            if (upper.contains(x)) {
+                return "New";
+            }
+        }
+        for (String x : CHANGES) {
+            if (upper.contains(x)) {
+                return "Change";
+            }
+        }
+        return "Other";
+    }
+
+    private Process git(String... args) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add("git");
+        command.add("-c");
+        command.add("core.quotepath=off");
+        /* a root commit has no parent to diff against, as in gitpy.py */
+        command.add("-c");
+        command.add("log.showRoot=false");
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).directory(repo).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static BufferedReader output(Process p) {
+        return new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static void waitFor(Process p, String what) throws IOException, InterruptedException {
+        if (p.waitFor() != 0) {
+            throw new IOException(what + " failed with exit code " + p.exitValue());
+        }
+    }
+
+    /** The last n commits of branch, oldest first, as gitpy.py visits them. */
+    public List<String> commits(String branch, int n) throws IOException, InterruptedException {
+        Process p = git("rev-list", "--max-count=" + n, branch);
+        List<String> commits = new ArrayList<String>();
+        BufferedReader in = output(p);
+        String line;
+        while ((line = in.readLine()) != null) {
+            commits.add(line.trim());
+        }
+        waitFor(p, "git rev-list");
+        Collections.reverse(commits);
+        return commits;
+    }
+
+    public void loadCache() throws IOException {
+        if (!cache.isFile()) {
+            return;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(cache),
+                StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    results.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Mines the commits missing from the cache in parallel batches; returns how many there were. */
+    public int mine(List<String> commits, int threads) throws IOException, InterruptedException {
+        List<String> missing = new ArrayList<String>();
+        for (String c : commits) {
+            if (!results.containsKey(c)) {
+                missing.add(c);
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Void>> batches = new ArrayList<Future<Void>>();
+            for (int from = 0; from < missing.size(); from += BATCH) {
+                final List<String> batch = missing.subList(from, Math.min(missing.size(), from + BATCH));
+                batches.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, InterruptedException {
+                        store(mineBatch(batch));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> b : batches) {
+                b.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("could not mine commits", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return missing.size();
+    }
+
+    /*
+     * one git log over the batch: every commit starts with a \1sha\2 line
+     * followed by its message up to \3 and its name-status lines; -m repeats
+     * a merge commit once per parent, and the changed files are the union
+     */
+    private Map<String, String> mineBatch(List<String> batch) throws IOException, InterruptedException {
+        List<String> args = new ArrayList<String>(Arrays.asList("log", "--no-walk=unsorted", "-m", "--no-renames",
+                "--name-status", "--format=%x01%H%x02%B%x03"));
+        args.addAll(batch);
+        Process p = git(args.toArray(new String[0]));
+        Map<String, String> messages = new HashMap<String, String>();
+        Map<String, Set<String>> files = new HashMap<String, Set<String>>();
+        BufferedReader in = output(p);
+        String sha = null;
+        StringBuilder message = null;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("\u0001")) {
+                int end = line.indexOf('\u0002');
+                sha = line.substring(1, end);
+                message = new StringBuilder();
+                line = line.substring(end + 1);
+                if (!files.containsKey(sha)) {
+                    files.put(sha, new LinkedHashSet<String>());
+                }
+            }
+            if (message != null) {
+                int end = line.indexOf('\u0003');
+                message.append(end < 0 ? line : line.substring(0, end)).append('\n');
+                if (end >= 0) {
+                    messages.put(sha, message.toString());
+                    message = null;
+                }
+            } else if (sha != null && line.indexOf('\t') > 0) {
+                files.get(sha).add(line.substring(line.lastIndexOf('\t') + 1));
+            }
+        }
+        waitFor(p, "git log");
+
+        Map<String, String> mined = new HashMap<String, String>();
+        for (String c : batch) {
+            Set<String> changed = files.get(c);
+            StringBuilder row = new StringBuilder();
+            if (changed == null || changed.isEmpty()) {
+                row.append(NONE);
+            } else {
+                row.append(label(messages.get(c)));
+                for (String f : changed) {
+                    row.append('\t').append(f);
+                }
+            }
+            mined.put(c, row.toString());
+        }
+        return mined;
+    }
+
+    /* adds a batch to the results and appends it to the cache, so an interrupted run keeps it */
+    private synchronized void store(Map<String, String> mined) throws IOException {
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cache, true),
+                StandardCharsets.UTF_8));
+        try {
+            for (Map.Entry<String, String> e : mined.entrySet()) {
+                out.write(e.getKey() + "\t" + e.getValue());
+                out.newLine();
+            }
+        } finally {
+            out.close();
+        }
+        results.putAll(mined);
+    }
+
+    /** Writes outputwithlabel.txt: the changed files and label of every commit that changed files. */
+    public void write(List<String> commits, File out) throws IOException {
+        BufferedWriter w = new BufferedWriter(new FileWriter(out), 1 << 16);
+        try {
+            for (String c : commits) {
+                String[] f = results.get(c).split("\t");
+                if (f[0].equals(NONE)) {
+                    continue;
+                }
+                for (int i = 1; i < f.length; i++) {
+                    w.write(f[i]);
+                    w.write(' ');
+                }
+                w.write(f[0]);
+                w.newLine();
+            }
+        } finally {
+            w.close();
+        }
+    }
+}